@@ -0,0 +1,44 @@
+package wf.garnier.testcontainers.samples.spring;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.devtools.restart.RestartScope;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+
+/**
+ * Run the sample app at development time, with Dex in a Testcontainer rather than Docker Compose:
+ * {@code ./gradlew :sample-spring:bootTestRun}.
+ * <p>
+ * The container is {@link RestartScope restart-scoped}: DevTools restarts reuse the running container,
+ * and the app's client, instead of starting a new Dex.
+ *
+ * @author Daniel Garnier-Moiroux
+ */
+public class TestSampleSpringApplication {
+
+    public static void main(String[] args) {
+        SpringApplication.from(SampleSpringApplication::main)
+                .with(DexContainerConfiguration.class)
+                .run(withDockerComposeDisabled(args));
+    }
+
+    private static String[] withDockerComposeDisabled(String[] args) {
+        var allArgs = new String[args.length + 1];
+        System.arraycopy(args, 0, allArgs, 0, args.length);
+        allArgs[args.length] = "--spring.docker.compose.enabled=false";
+        return allArgs;
+    }
+
+    @TestConfiguration(proxyBeanMethods = false)
+    static class DexContainerConfiguration {
+
+        @Bean
+        @ServiceConnection
+        @RestartScope
+        DexContainer dexContainer() {
+            return new DexContainer(DexContainer.DEFAULT_IMAGE_NAME.withTag(DexContainer.DEFAULT_TAG));
+        }
+    }
+}
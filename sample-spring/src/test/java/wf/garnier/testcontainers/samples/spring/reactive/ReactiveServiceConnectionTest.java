@@ -0,0 +1,87 @@
+package wf.garnier.testcontainers.samples.spring.reactive;
+
+import java.io.IOException;
+
+import org.htmlunit.Page;
+import org.htmlunit.WebClient;
+import org.htmlunit.html.HtmlInput;
+import org.htmlunit.html.HtmlPage;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.SpringBootConfiguration;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.context.annotation.Bean;
+import org.springframework.security.config.Customizer;
+import org.springframework.security.config.web.server.ServerHttpSecurity;
+import org.springframework.security.oauth2.client.authentication.OAuth2AuthenticationToken;
+import org.springframework.security.oauth2.core.oidc.user.OidcUser;
+import org.springframework.security.web.server.SecurityWebFilterChain;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import org.testcontainers.junit.jupiter.Container;
+import org.testcontainers.junit.jupiter.Testcontainers;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+
+/**
+ * This test showcases how to run a reactive, WebFlux-based {@link SpringBootTest} with Testcontainers, using
+ * the {@link ServiceConnection} abstraction.
+ *
+ * @author Daniel Garnier-Moiroux
+ */
+@Testcontainers
+@SpringBootTest(
+        classes = ReactiveServiceConnectionTest.ReactiveApplication.class,
+        webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT,
+        properties = "spring.main.web-application-type=reactive"
+)
+class ReactiveServiceConnectionTest {
+
+    @Container
+    @ServiceConnection
+    static DexContainer container = new DexContainer(DexContainer.DEFAULT_IMAGE_NAME.withTag(DexContainer.DEFAULT_TAG));
+
+    @LocalServerPort
+    private int port;
+
+    private final WebClient webClient = new WebClient();
+
+    @Test
+    void reactiveLogin() throws IOException {
+        webClient.getOptions().setRedirectEnabled(true);
+        HtmlPage dexLoginPage = webClient.getPage("http://localhost:%s/".formatted(port));
+        dexLoginPage.<HtmlInput>getElementByName("login").type(container.getUser().email());
+        dexLoginPage.<HtmlInput>getElementByName("password").type(container.getUser().clearTextPassword());
+
+        Page appPage = dexLoginPage.getElementById("submit-login").click();
+        assertThat(appPage.getWebResponse().getContentAsString()).isEqualTo("admin@example.com");
+    }
+
+    @SpringBootConfiguration
+    @EnableAutoConfiguration
+    static class ReactiveApplication {
+
+        @Bean
+        SecurityWebFilterChain securityWebFilterChain(ServerHttpSecurity http) {
+            return http
+                    .authorizeExchange(exchanges -> exchanges.anyExchange().authenticated())
+                    .oauth2Login(Customizer.withDefaults())
+                    .build();
+        }
+
+        @Bean
+        RouterFunction<ServerResponse> hello() {
+            return RouterFunctions.route()
+                    .GET("/", request -> request.principal()
+                            .cast(OAuth2AuthenticationToken.class)
+                            .map(authentication -> ((OidcUser) authentication.getPrincipal()).getEmail())
+                            .flatMap(email -> ServerResponse.ok().bodyValue(email)))
+                    .build();
+        }
+    }
+}
@@ -16,9 +16,26 @@ dependencies {
     implementation("org.springframework.boot:spring-boot-web-server:${bootVersion}")
     implementation("org.springframework.boot:spring-boot-testcontainers:${bootVersion}")
     implementation("org.springframework.boot:spring-boot-starter-security-oauth2-client:${bootVersion}")
+    compileOnly("org.springframework.boot:spring-boot-docker-compose:${bootVersion}")
+    compileOnly("io.micrometer:micrometer-core:1.16.3")
+    compileOnly("io.micrometer:micrometer-observation:1.16.3")
+    compileOnly("io.projectreactor:reactor-core:3.8.3")
+    compileOnly("org.springframework:spring-test:7.0.5")
+    compileOnly("org.springframework:spring-webflux:7.0.5")
+    compileOnly("jakarta.servlet:jakarta.servlet-api:6.1.0")
 
     testImplementation(platform("org.junit:junit-bom:6.0.3"))
+    testRuntimeOnly("org.junit.platform:junit-platform-launcher")
     testImplementation("org.junit.jupiter:junit-jupiter")
+    testImplementation("org.assertj:assertj-core:3.27.7")
+    testImplementation("org.springframework.boot:spring-boot-test:${bootVersion}")
+    testImplementation("org.springframework.boot:spring-boot-docker-compose:${bootVersion}")
+    testImplementation("org.springframework.boot:spring-boot-starter-security-oauth2-resource-server:${bootVersion}")
+    testImplementation("org.springframework:spring-test:7.0.5")
+    testImplementation("io.micrometer:micrometer-observation:1.16.3")
+    testImplementation("io.projectreactor:reactor-core:3.8.3")
+    testImplementation("org.springframework:spring-webflux:7.0.5")
+    testImplementation("jakarta.servlet:jakarta.servlet-api:6.1.0")
 }
 
 tasks.test {
@@ -0,0 +1,138 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import wf.garnier.testcontainers.dexidp.LatencyHistogram;
+
+/**
+ * Registers the application's client with Dex in the background, so that application startup does
+ * not wait on gRPC calls to the container. Requests that need the client, such as OAuth2 login
+ * requests, call {@link #awaitRegistration()}, which only blocks while a registration is in flight.
+ * <p>
+ * Registrations for the same application run one after the other, in the order they were requested.
+ */
+final class DexClientRegistrar {
+
+    private static final Duration REGISTRATION_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final ExecutorService defaultExecutor = Executors.newCachedThreadPool(runnable -> {
+        var thread = new Thread(runnable, "dex-client-registration");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final DexConnectionDetails connectionDetails;
+
+    private final Executor executor;
+
+    private final DexOperationObserver observer;
+
+    private final LatencyHistogram registrationLatency = new LatencyHistogram();
+
+    private volatile CompletableFuture<Void> registration = CompletableFuture.completedFuture(null);
+
+    DexClientRegistrar(DexConnectionDetails connectionDetails, DexOperationObserver observer) {
+        this(connectionDetails, defaultExecutor, observer);
+    }
+
+    /**
+     * Create a registrar running the blocking registration calls on the given executor.
+     *
+     * @param connectionDetails the connection details
+     * @param executor          the executor for registration calls
+     * @param observer          the observer of registration calls
+     */
+    DexClientRegistrar(DexConnectionDetails connectionDetails, Executor executor, DexOperationObserver observer) {
+        this.connectionDetails = connectionDetails;
+        this.executor = executor;
+        this.observer = observer;
+    }
+
+    /**
+     * Register the client for the given port, asynchronously.
+     *
+     * @param port the port of the running Spring application
+     */
+    synchronized void register(int port) {
+        registration = registration
+                .handle((result, error) -> null)
+                .thenRunAsync(() -> {
+                    var start = System.nanoTime();
+                    observer.observe(DexOperationObserver.CLIENT_REGISTRATION, connectionDetails,
+                            () -> connectionDetails.registerClient(port));
+                    registrationLatency.record(System.nanoTime() - start);
+                }, executor);
+    }
+
+    /**
+     * Wait for in-flight registrations, then remove the client from Dex.
+     */
+    synchronized void unregister() {
+        afterRegistration(connectionDetails::unregisterClient);
+    }
+
+    /**
+     * Wait for in-flight registrations, then release the client, for the next context using the same Dex.
+     */
+    synchronized void release() {
+        afterRegistration(connectionDetails::releaseClient);
+    }
+
+    private void afterRegistration(Runnable unregistration) {
+        registration.handle((result, error) -> null).join();
+        observer.observe(DexOperationObserver.CLIENT_UNREGISTRATION, connectionDetails, unregistration);
+    }
+
+    /**
+     * The latest registration, for callers that must not block.
+     *
+     * @return the registration future
+     */
+    CompletableFuture<Void> registration() {
+        return registration;
+    }
+
+    /**
+     * The maximum time to wait for a registration.
+     *
+     * @return the timeout
+     */
+    Duration registrationTimeout() {
+        return REGISTRATION_TIMEOUT;
+    }
+
+    /**
+     * Block until the latest registration completes. Returns immediately when it has already completed.
+     *
+     * @throws IllegalStateException if the registration failed, or did not complete in time
+     */
+    void awaitRegistration() {
+        var current = registration;
+        try {
+            current.get(REGISTRATION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Could not register client with Dex", e.getCause());
+        } catch (TimeoutException e) {
+            throw new IllegalStateException("Could not register client with Dex in " + REGISTRATION_TIMEOUT, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while registering client with Dex", e);
+        }
+    }
+
+    /**
+     * The latency of completed registrations.
+     *
+     * @return the latency histogram
+     */
+    LatencyHistogram getRegistrationLatency() {
+        return registrationLatency;
+    }
+}
@@ -0,0 +1,40 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.Iterator;
+
+import org.jspecify.annotations.Nullable;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+
+/**
+ * A {@link ClientRegistrationRepository} that waits for the client to be registered with Dex before
+ * handing out the registration, so that login requests arriving while the registration is in flight
+ * are not redirected to Dex too early.
+ */
+final class DexClientRegistrationRepository implements ClientRegistrationRepository, Iterable<ClientRegistration> {
+
+    private final InMemoryClientRegistrationRepository delegate;
+
+    private final DexClientRegistrar registrar;
+
+    DexClientRegistrationRepository(ClientRegistration clientRegistration, DexClientRegistrar registrar) {
+        this.delegate = new InMemoryClientRegistrationRepository(clientRegistration);
+        this.registrar = registrar;
+    }
+
+    @Override
+    @Nullable
+    public ClientRegistration findByRegistrationId(String registrationId) {
+        var clientRegistration = delegate.findByRegistrationId(registrationId);
+        if (clientRegistration != null) {
+            registrar.awaitRegistration();
+        }
+        return clientRegistration;
+    }
+
+    @Override
+    public Iterator<ClientRegistration> iterator() {
+        return delegate.iterator();
+    }
+}
@@ -1,12 +1,21 @@
 package wf.garnier.testcontainers.dexidp.autoconfigure;
 
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import org.jspecify.annotations.Nullable;
 import org.springframework.boot.autoconfigure.service.connection.ConnectionDetails;
 import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.DexTokens;
 
 /**
  * {@link ConnectionDetails} for a running {@link DexContainer}. It has a {@link #registerClient(int port)}
  * which mutates the running container, by adding a client to the running Dex OpenID Provider.
+ * <p>
+ * Connection details are created for each application context, so each context gets its own client.
  */
 public interface DexConnectionDetails extends ConnectionDetails {
 
@@ -29,6 +38,99 @@ public interface DexConnectionDetails extends ConnectionDetails {
      */
     String getIssuerUri();
 
+    /**
+     * The Authorization Endpoint of the running Dex container. Defaults to the
+     * {@code authorization_endpoint} of the {@link #getProviderConfigurationMetadata() provider metadata},
+     * or to Dex's {@code /auth} endpoint under the issuer.
+     *
+     * @return the authorization endpoint URI
+     * @see ClientRegistration.ProviderDetails#getAuthorizationUri()
+     */
+    default String getAuthorizationUri() {
+        return providerEndpoint("authorization_endpoint", "/auth");
+    }
+
+    /**
+     * The Token Endpoint of the running Dex container. Defaults to the {@code token_endpoint} of the
+     * {@link #getProviderConfigurationMetadata() provider metadata}, or to Dex's {@code /token} endpoint
+     * under the issuer.
+     *
+     * @return the token endpoint URI
+     * @see ClientRegistration.ProviderDetails#getTokenUri()
+     */
+    default String getTokenUri() {
+        return providerEndpoint("token_endpoint", "/token");
+    }
+
+    /**
+     * The UserInfo Endpoint of the running Dex container, if it advertises one. Defaults to the
+     * {@code userinfo_endpoint} of the {@link #getProviderConfigurationMetadata() provider metadata}.
+     *
+     * @return the userinfo endpoint URI, or {@code null}
+     * @see ClientRegistration.ProviderDetails.UserInfoEndpoint#getUri()
+     */
+    @Nullable
+    default String getUserInfoUri() {
+        return getProviderConfigurationMetadata().get("userinfo_endpoint") instanceof String uri ? uri : null;
+    }
+
+    /**
+     * The JSON Web Key Set URI of the running Dex container. Defaults to the {@code jwks_uri} of the
+     * {@link #getProviderConfigurationMetadata() provider metadata}, or to Dex's {@code /keys} endpoint
+     * under the issuer.
+     *
+     * @return the JWKS URI
+     * @see ClientRegistration.ProviderDetails#getJwkSetUri()
+     */
+    default String getJwkSetUri() {
+        return providerEndpoint("jwks_uri", "/keys");
+    }
+
+    /**
+     * The JSON Web Key Set of the running Dex container, in JSON format. Implementations should cache
+     * it, so that verifying tokens does not require a call to Dex. By default, it is fetched from
+     * {@link #getJwkSetUri()} on every call.
+     *
+     * @return the JWKS document
+     * @see DexContainer#getJwks()
+     */
+    default String getJwkSet() {
+        var jwkSetUri = getJwkSetUri();
+        try (var jwkSet = URI.create(jwkSetUri).toURL().openStream()) {
+            return new String(jwkSet.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not fetch the JWKS from " + jwkSetUri, e);
+        }
+    }
+
+    /**
+     * Get tokens for the given user, from the running Dex container. Implementations should cache
+     * tokens until they are about to expire, so that tests can call this for every request.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile}.
+     * <p>
+     * Not supported by default: implementations written before this method was added cannot issue tokens.
+     *
+     * @param user   the User, who must be registered with the container
+     * @param scopes the scopes to request
+     * @return the token response
+     * @throws UnsupportedOperationException if the implementation does not issue tokens
+     * @see DexTokens#getToken(DexContainer.Client, DexContainer.User, String...)
+     */
+    default DexTokens.TokenResponse getToken(DexContainer.User user, String... scopes) {
+        throw new UnsupportedOperationException("%s does not issue tokens".formatted(getClass().getName()));
+    }
+
+    /**
+     * The full OpenID Provider Metadata of the running Dex container.
+     *
+     * @return the provider metadata, empty by default
+     * @see ClientRegistration.ProviderDetails#getConfigurationMetadata()
+     */
+    default Map<String, Object> getProviderConfigurationMetadata() {
+        return Map.of();
+    }
+
     /**
      * The {@code client_id} for an OAuth2/OpenID client in the running Dex container.
      * Used for {@code spring.security.oauth2.client.registration.dex.client-id}.
@@ -51,9 +153,34 @@ public interface DexConnectionDetails extends ConnectionDetails {
      * Register a client with the Dex OpenID Provider. The client will use {@link #getClientId()} and
      * {@link #getClientSecret()}. The {@code redirect_uri} will be:
      * {@code http://localhost:${port}/login/oauth2/code/${registrationName}}
+     * <p>
+     * Implementations should make this a no-op when the client is already registered for this port.
      *
      * @param port the port of the running Spring application
      */
     void registerClient(int port);
 
+    /**
+     * Remove the client registered with {@link #registerClient(int)} from the Dex OpenID Provider, when
+     * the application context closes. Does nothing by default.
+     */
+    default void unregisterClient() {
+    }
+
+    /**
+     * Release the client registered with {@link #registerClient(int)}, when the application context
+     * closes but Dex outlives it, for example a DevTools {@code @RestartScope} container. Implementations
+     * may keep the client registered for the next context. Calls {@link #unregisterClient()} by default.
+     */
+    default void releaseClient() {
+        unregisterClient();
+    }
+
+    private String providerEndpoint(String name, String dexPath) {
+        if (getProviderConfigurationMetadata().get(name) instanceof String uri) {
+            return uri;
+        }
+        return getIssuerUri() + dexPath;
+    }
+
 }
@@ -1,16 +1,36 @@
 package wf.garnier.testcontainers.dexidp.autoconfigure;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.WeakHashMap;
+
+import org.jspecify.annotations.Nullable;
 import org.springframework.boot.testcontainers.service.connection.ContainerConnectionDetailsFactory;
 import org.springframework.boot.testcontainers.service.connection.ContainerConnectionSource;
 import org.springframework.web.util.UriComponentsBuilder;
 import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.DexTokens;
 
 
 /**
  * {@link ContainerConnectionDetailsFactory} to create {@link DexConnectionDetails} for {@link DexContainer}.
+ * <p>
+ * When an application context closes, its client is removed from the container. When the container
+ * outlives the context, for example a {@code @RestartScope} container with DevTools, the client is
+ * released instead: it stays registered with the container, and is handed to the next context using the
+ * same container. The new context reuses the client, and only updates its redirect URI when the port
+ * changed.
  */
 public class DexConnectionDetailsFactory extends ContainerConnectionDetailsFactory<DexContainer, DexConnectionDetails> {
 
+    /**
+     * Clients released by closed contexts, by container. The containers are weakly referenced, so that
+     * the entry of a container goes away with the container.
+     */
+    private static final Map<DexContainer, Deque<DexContainer.Client>> releasedClients = new WeakHashMap<>();
+
     @Override
     protected DexConnectionDetails getContainerConnectionDetails(ContainerConnectionSource<DexContainer> source) {
         return new DexContainerConnectionDetails(source);
@@ -18,7 +38,15 @@ public class DexConnectionDetailsFactory extends ContainerConnectionDetailsFacto
 
     private static final class DexContainerConnectionDetails extends ContainerConnectionDetailsFactory.ContainerConnectionDetails<DexContainer> implements DexConnectionDetails {
 
-        private DexContainer.Client client = new DexContainer.Client("spring-client", "spring-secret", "<will be updated>");
+        /**
+         * Test contexts may run concurrently against the same container, and Spring caches them: every
+         * context gets its own client, so that contexts do not overwrite each other's redirect URI.
+         * Acquired on first use, see {@link #client()}.
+         */
+        @Nullable
+        private DexContainer.Client client;
+
+        private boolean registered = false;
 
         private DexContainerConnectionDetails(ContainerConnectionSource<DexContainer> source) {
             super(source);
@@ -29,28 +57,155 @@ public class DexConnectionDetailsFactory extends ContainerConnectionDetailsFacto
             return getContainer().getIssuerUri();
         }
 
+        @Override
+        public String getAuthorizationUri() {
+            return getContainer().getOpenidConfiguration().authorizationEndpoint();
+        }
+
+        @Override
+        public String getTokenUri() {
+            return getContainer().getOpenidConfiguration().tokenEndpoint();
+        }
+
+        @Override
+        @Nullable
+        public String getUserInfoUri() {
+            return getContainer().getOpenidConfiguration().userinfoEndpoint();
+        }
+
+        @Override
+        public String getJwkSetUri() {
+            return getContainer().getOpenidConfiguration().jwksUri();
+        }
+
+        @Override
+        public String getJwkSet() {
+            return getContainer().getJwks().json();
+        }
+
+        /**
+         * Tokens are issued to the container's default client: this context's client may not be
+         * registered, for example in MockMvc tests, which do not start a web server.
+         */
+        @Override
+        public DexTokens.TokenResponse getToken(DexContainer.User user, String... scopes) {
+            var container = getContainer();
+            return container.getTokens().getToken(container.getClient(), user, scopes);
+        }
+
+        @Override
+        public Map<String, Object> getProviderConfigurationMetadata() {
+            return getContainer().getOpenidConfiguration().metadata();
+        }
+
         @Override
         public String getClientId() {
-            return client.clientId();
+            return client().clientId();
         }
 
         @Override
         public String getClientSecret() {
-            return client.clientSecret();
+            return client().clientSecret();
         }
 
+        /**
+         * Register the client, unless it is already registered with this redirect URI, which is the
+         * case when a released client is reused on the same port.
+         */
         @Override
-        public void registerClient(int port) {
+        public synchronized void registerClient(int port) {
             var redirectUri = UriComponentsBuilder.fromUriString("http://localhost")
                     .port(port)
                     .path("/login/oauth2/code/" + getRegistrationName())
                     .toUriString();
+            var current = client();
+            if (registered && redirectUri.equals(current.redirectUri())) {
+                return;
+            }
             client = new DexContainer.Client(
-                    client.clientId(),
-                    client.clientSecret(),
+                    current.clientId(),
+                    current.clientSecret(),
                     redirectUri
             );
-            getContainer().withClient(client);
+            var container = getContainer();
+            // DexContainer is not thread-safe, and may be shared by contexts starting in parallel
+            synchronized (container) {
+                container.withClient(client);
+            }
+            registered = true;
+        }
+
+        @Override
+        public synchronized void unregisterClient() {
+            if (!registered || client == null) {
+                return;
+            }
+            registered = false;
+            var container = getContainer();
+            synchronized (container) {
+                // The container may already be stopped when the context closes
+                if (container.isRunning()) {
+                    container.removeClient(client.clientId());
+                }
+            }
+        }
+
+        /**
+         * Release the client for the next context using the same container. It stays registered.
+         */
+        @Override
+        public synchronized void releaseClient() {
+            if (!registered || client == null) {
+                return;
+            }
+            registered = false;
+            var container = getContainer();
+            // The container may already be stopped when the context closes
+            if (container.isRunning()) {
+                synchronized (releasedClients) {
+                    releasedClients.computeIfAbsent(container, c -> new ArrayDeque<>()).push(client);
+                }
+            }
+        }
+
+        /**
+         * The client of this context: a client released by a closed context when there is one, or a
+         * new client.
+         */
+        private synchronized DexContainer.Client client() {
+            if (client == null) {
+                var released = acquireReleasedClient(getContainer());
+                if (released != null) {
+                    client = released;
+                    registered = true;
+                } else {
+                    client = new DexContainer.Client(
+                            "spring-client-" + UUID.randomUUID().toString().substring(0, 8),
+                            "spring-secret",
+                            "<will be updated>"
+                    );
+                }
+            }
+            return client;
+        }
+
+        @Nullable
+        private static DexContainer.Client acquireReleasedClient(DexContainer container) {
+            if (!container.isRunning()) {
+                return null;
+            }
+            synchronized (releasedClients) {
+                var released = releasedClients.get(container);
+                while (released != null && !released.isEmpty()) {
+                    var candidate = released.pop();
+                    // The container may have been restored from a snapshot, or restarted, since the client
+                    // was released
+                    if (candidate.equals(container.getClient(candidate.clientId()))) {
+                        return candidate;
+                    }
+                }
+                return null;
+            }
         }
     }
 }
@@ -1,17 +1,39 @@
 package wf.garnier.testcontainers.dexidp.autoconfigure;
 
+import java.util.concurrent.TimeUnit;
+
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.proc.JWSVerificationKeySelector;
+import com.nimbusds.jose.proc.SecurityContext;
+import com.nimbusds.jwt.proc.DefaultJWTProcessor;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.observation.ObservationRegistry;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
 import org.springframework.boot.autoconfigure.AutoConfiguration;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
 import org.springframework.boot.security.oauth2.client.autoconfigure.OAuth2ClientAutoConfiguration;
 import org.springframework.boot.web.server.context.WebServerInitializedEvent;
+import org.springframework.context.ApplicationContext;
 import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextClosedEvent;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
 import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
-import org.springframework.security.oauth2.client.registration.ClientRegistrations;
-import org.springframework.security.oauth2.client.registration.InMemoryClientRegistrationRepository;
+import org.springframework.security.oauth2.core.AuthorizationGrantType;
+import org.springframework.security.oauth2.core.ClientAuthenticationMethod;
+import org.springframework.security.oauth2.core.oidc.IdTokenClaimNames;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
 import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.LatencyHistogram;
 
 /**
  * {@link AutoConfiguration} support for OAuth2 login with a {@link DexContainer}.
@@ -25,29 +47,200 @@ import wf.garnier.testcontainers.dexidp.DexContainer;
  * and mutating the already-started component. Since both Testcontainers and SpringBootTest
  * tend to provide a random port for their server, we start Dex, point Spring Boot at it, and
  * then add Spring Boot to Dex as a client.
+ * <p>
+ * Registration happens in the background, and login requests wait for it only when they arrive
+ * before it completes. When Micrometer is on the classpath, the registration latency is published
+ * as {@code dex.client.registration}.
+ * <p>
+ * For servlet resource servers, it also provides a {@link JwtDecoder} backed by the JWKS cached by the
+ * container.
+ * <p>
+ * When an {@link ObservationRegistry} bean exists, client registration and metadata retrieval are
+ * recorded as Micrometer observations, see {@link DexOperationObserver}.
  */
-@AutoConfiguration(before = OAuth2ClientAutoConfiguration.class)
+@AutoConfiguration(
+        before = OAuth2ClientAutoConfiguration.class,
+        beforeName = "org.springframework.boot.security.oauth2.server.resource.autoconfigure.servlet.OAuth2ResourceServerAutoConfiguration",
+        afterName = "org.springframework.boot.micrometer.observation.autoconfigure.ObservationAutoConfiguration"
+)
 class DexContainerAutoConfiguration {
 
+    private static final String RESTART_SCOPE = "restart";
+
+    static final String BEARER_TOKEN_AUTHENTICATION_TOKEN =
+            "org.springframework.security.oauth2.server.resource.authentication.BearerTokenAuthenticationToken";
+
+    /**
+     * Reactive applications get a {@code ReactiveClientRegistrationRepository} instead, see
+     * {@link DexContainerReactiveAutoConfiguration}.
+     */
     @Bean
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
     @ConditionalOnMissingBean(ClientRegistrationRepository.class)
     @ConditionalOnBean(DexConnectionDetails.class)
-    ClientRegistrationRepository clientRegistrationRepository(DexConnectionDetails connectionDetails) {
-        var client = ClientRegistrations
-                .fromIssuerLocation(connectionDetails.getIssuerUri())
-                .registrationId(connectionDetails.getRegistrationName())
+    ClientRegistrationRepository clientRegistrationRepository(DexConnectionDetails connectionDetails,
+                                                              DexClientRegistrar registrar,
+                                                              ObjectProvider<DexOperationObserver> observer) {
+        return new DexClientRegistrationRepository(
+                clientRegistration(connectionDetails, observer.getIfAvailable(() -> DexOperationObserver.NOOP)),
+                registrar
+        );
+    }
+
+    /**
+     * Build the {@link ClientRegistration} from the provider metadata cached by the container, rather
+     * than with {@code ClientRegistrations.fromIssuerLocation}, so that creating an application context
+     * does not make HTTP calls to Dex. Only the provider metadata is observed: connection details that
+     * do not cache it fetch it from Dex on first use, and the endpoints are read from it.
+     */
+    static ClientRegistration clientRegistration(DexConnectionDetails connectionDetails, DexOperationObserver observer) {
+        var providerConfigurationMetadata = observer.observe(DexOperationObserver.METADATA_RETRIEVAL, connectionDetails,
+                () -> connectionDetails.getProviderConfigurationMetadata());
+        return ClientRegistration.withRegistrationId(connectionDetails.getRegistrationName())
                 .clientId(connectionDetails.getClientId())
                 .clientSecret(connectionDetails.getClientSecret())
+                .clientAuthenticationMethod(ClientAuthenticationMethod.CLIENT_SECRET_BASIC)
+                .authorizationGrantType(AuthorizationGrantType.AUTHORIZATION_CODE)
+                .redirectUri("{baseUrl}/{action}/oauth2/code/{registrationId}")
                 .scope("openid", "email", "profile")
+                .issuerUri(connectionDetails.getIssuerUri())
+                .authorizationUri(connectionDetails.getAuthorizationUri())
+                .tokenUri(connectionDetails.getTokenUri())
+                .userInfoUri(connectionDetails.getUserInfoUri())
+                .userNameAttributeName(IdTokenClaimNames.SUB)
+                .jwkSetUri(connectionDetails.getJwkSetUri())
+                .providerConfigurationMetadata(providerConfigurationMetadata)
+                .clientName(connectionDetails.getRegistrationName())
                 .build();
-        return new InMemoryClientRegistrationRepository(client);
     }
 
     @Bean
+    @ConditionalOnMissingBean
     @ConditionalOnBean(DexConnectionDetails.class)
-    ApplicationListener<WebServerInitializedEvent> ready(DexConnectionDetails connectionDetails) {
+    DexClientRegistrar dexClientRegistrar(DexConnectionDetails connectionDetails, ObjectProvider<DexOperationObserver> observer) {
+        return new DexClientRegistrar(connectionDetails, observer.getIfAvailable(() -> DexOperationObserver.NOOP));
+    }
+
+    /**
+     * Register the client in the background, startup does not wait for Dex.
+     *
+     * @see DexClientRegistrationRepository
+     */
+    @Bean
+    @ConditionalOnBean(DexConnectionDetails.class)
+    ApplicationListener<WebServerInitializedEvent> ready(DexClientRegistrar registrar) {
         return event -> {
-            connectionDetails.registerClient(event.getWebServer().getPort());
+            // Ignore other servers, e.g. a management server running on a separate port
+            if (event.getApplicationContext().getServerNamespace() == null) {
+                registrar.register(event.getWebServer().getPort());
+            }
         };
     }
+
+    /**
+     * Remove the client when the context closes. A container that outlives the context keeps it, so that
+     * the next context reuses it.
+     */
+    @Bean
+    @ConditionalOnBean(DexConnectionDetails.class)
+    ApplicationListener<ContextClosedEvent> dexClientCleanup(DexClientRegistrar registrar,
+                                                             ApplicationContext applicationContext,
+                                                             ConfigurableListableBeanFactory beanFactory) {
+        return event -> {
+            // Child contexts propagate their events to this context
+            if (event.getApplicationContext() != applicationContext) {
+                return;
+            }
+            if (outlivesContext(beanFactory)) {
+                registrar.release();
+            } else {
+                registrar.unregister();
+            }
+        };
+    }
+
+    /**
+     * Whether the {@link DexContainer} bean outlives the application context, as DevTools'
+     * {@code @RestartScope} beans do.
+     */
+    static boolean outlivesContext(ConfigurableListableBeanFactory beanFactory) {
+        for (var beanName : beanFactory.getBeanNamesForType(DexContainer.class, true, false)) {
+            if (beanFactory.containsBeanDefinition(beanName)
+                    && RESTART_SCOPE.equals(beanFactory.getBeanDefinition(beanName).getScope())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A JWT processor verifying signatures against the JWKS cached by the connection details. The key set
+     * is loaded eagerly, so that the first request does not wait for discovery or JWKS calls. Claims are
+     * not verified, this is left to the decoder's validator.
+     */
+    static DefaultJWTProcessor<SecurityContext> jwtProcessor(DexConnectionDetails connectionDetails, DexOperationObserver observer) {
+        var jwkSource = new DexJwkSource(connectionDetails);
+        observer.observe(DexOperationObserver.METADATA_RETRIEVAL, connectionDetails, jwkSource::warm);
+        var jwtProcessor = new DefaultJWTProcessor<SecurityContext>();
+        jwtProcessor.setJWSKeySelector(new JWSVerificationKeySelector<>(JWSAlgorithm.RS256, jwkSource));
+        jwtProcessor.setJWTClaimsSetVerifier((claims, context) -> {
+        });
+        return jwtProcessor;
+    }
+
+    /**
+     * Only for resource servers: the OAuth2 client starter brings Nimbus and {@link JwtDecoder}, but not
+     * the resource server support.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.SERVLET)
+    @ConditionalOnClass(name = BEARER_TOKEN_AUTHENTICATION_TOKEN)
+    static class DexJwtDecoderConfiguration {
+
+        /**
+         * A {@link JwtDecoder} for resource servers, verifying tokens against the JWKS cached by the
+         * container, and validating the issuer.
+         */
+        @Bean
+        @ConditionalOnMissingBean(JwtDecoder.class)
+        @ConditionalOnBean(DexConnectionDetails.class)
+        JwtDecoder dexJwtDecoder(DexConnectionDetails connectionDetails, ObjectProvider<DexOperationObserver> observer) {
+            var jwtDecoder = new NimbusJwtDecoder(
+                    jwtProcessor(connectionDetails, observer.getIfAvailable(() -> DexOperationObserver.NOOP))
+            );
+            jwtDecoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(connectionDetails.getIssuerUri()));
+            return jwtDecoder;
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(ObservationRegistry.class)
+    static class DexObservationConfiguration {
+
+        @Bean
+        @ConditionalOnMissingBean
+        @ConditionalOnBean({DexConnectionDetails.class, ObservationRegistry.class})
+        DexOperationObserver dexOperationObserver(ObservationRegistry observationRegistry) {
+            return new ObservationDexOperationObserver(observationRegistry);
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(MeterBinder.class)
+    static class DexClientRegistrationMetricsConfiguration {
+
+        /**
+         * Publish {@code dex.client.registration}, a timer of client registrations with Dex.
+         */
+        @Bean
+        @ConditionalOnBean(DexConnectionDetails.class)
+        MeterBinder dexClientRegistrationMetrics(DexClientRegistrar registrar) {
+            return registry -> FunctionTimer.builder("dex.client.registration", registrar.getRegistrationLatency(),
+                            LatencyHistogram::count,
+                            latency -> latency.total().toNanos(),
+                            TimeUnit.NANOSECONDS)
+                    .description("Registrations of the application's client with Dex")
+                    .register(registry);
+        }
+    }
 }
@@ -0,0 +1,129 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.Iterator;
+import java.util.concurrent.TimeoutException;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.AutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.security.oauth2.client.autoconfigure.reactive.ReactiveOAuth2ClientAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.client.registration.ClientRegistration;
+import org.springframework.security.oauth2.client.registration.InMemoryReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusReactiveJwtDecoder;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+
+/**
+ * {@link AutoConfiguration} support for OAuth2 login with a {@link DexContainer}, in reactive
+ * applications. Supersedes {@link ReactiveOAuth2ClientAutoConfiguration}.
+ * <p>
+ * The client is registered with the running container the same way as in
+ * {@link DexContainerAutoConfiguration}, but the blocking gRPC calls run on the
+ * {@link Schedulers#boundedElastic() bounded elastic} scheduler, and requests wait for the
+ * registration without blocking.
+ * <p>
+ * For reactive resource servers, it also provides a {@link ReactiveJwtDecoder} backed by the JWKS cached
+ * by the container.
+ */
+@AutoConfiguration(
+        before = {ReactiveOAuth2ClientAutoConfiguration.class, DexContainerAutoConfiguration.class},
+        beforeName = "org.springframework.boot.security.oauth2.server.resource.autoconfigure.reactive.ReactiveOAuth2ResourceServerAutoConfiguration"
+)
+@ConditionalOnWebApplication(type = ConditionalOnWebApplication.Type.REACTIVE)
+@ConditionalOnClass({Mono.class, ReactiveClientRegistrationRepository.class})
+class DexContainerReactiveAutoConfiguration {
+
+    @Bean
+    @ConditionalOnMissingBean
+    @ConditionalOnBean(DexConnectionDetails.class)
+    DexClientRegistrar dexClientRegistrar(DexConnectionDetails connectionDetails, ObjectProvider<DexOperationObserver> observer) {
+        return new DexClientRegistrar(
+                connectionDetails,
+                Schedulers.boundedElastic()::schedule,
+                observer.getIfAvailable(() -> DexOperationObserver.NOOP)
+        );
+    }
+
+    @Bean
+    @ConditionalOnMissingBean(ReactiveClientRegistrationRepository.class)
+    @ConditionalOnBean(DexConnectionDetails.class)
+    ReactiveClientRegistrationRepository reactiveClientRegistrationRepository(DexConnectionDetails connectionDetails,
+                                                                              DexClientRegistrar registrar,
+                                                                              ObjectProvider<DexOperationObserver> observer) {
+        return new DexReactiveClientRegistrationRepository(
+                DexContainerAutoConfiguration.clientRegistration(connectionDetails, observer.getIfAvailable(() -> DexOperationObserver.NOOP)),
+                registrar
+        );
+    }
+
+    /**
+     * Only for resource servers, see {@link DexContainerAutoConfiguration.DexJwtDecoderConfiguration}.
+     */
+    @Configuration(proxyBeanMethods = false)
+    @ConditionalOnClass(name = DexContainerAutoConfiguration.BEARER_TOKEN_AUTHENTICATION_TOKEN)
+    static class DexReactiveJwtDecoderConfiguration {
+
+        /**
+         * A {@link ReactiveJwtDecoder} for resource servers, verifying tokens against the JWKS cached by
+         * the container, and validating the issuer.
+         */
+        @Bean
+        @ConditionalOnMissingBean(ReactiveJwtDecoder.class)
+        @ConditionalOnBean(DexConnectionDetails.class)
+        ReactiveJwtDecoder dexReactiveJwtDecoder(DexConnectionDetails connectionDetails, ObjectProvider<DexOperationObserver> observer) {
+            var jwtProcessor = DexContainerAutoConfiguration.jwtProcessor(
+                    connectionDetails,
+                    observer.getIfAvailable(() -> DexOperationObserver.NOOP)
+            );
+            // Verifying fetches the JWKS again once it expired, keep it off event loop threads
+            var jwtDecoder = new NimbusReactiveJwtDecoder(jwt -> Mono.fromCallable(() -> jwtProcessor.process(jwt, null))
+                    .subscribeOn(Schedulers.boundedElastic()));
+            jwtDecoder.setJwtValidator(JwtValidators.createDefaultWithIssuer(connectionDetails.getIssuerUri()));
+            return jwtDecoder;
+        }
+    }
+
+    /**
+     * A {@link ReactiveClientRegistrationRepository} that waits for the client to be registered with
+     * Dex before handing out the registration, without blocking.
+     *
+     * @see DexClientRegistrationRepository
+     */
+    static final class DexReactiveClientRegistrationRepository implements ReactiveClientRegistrationRepository, Iterable<ClientRegistration> {
+
+        private final InMemoryReactiveClientRegistrationRepository delegate;
+
+        private final DexClientRegistrar registrar;
+
+        DexReactiveClientRegistrationRepository(ClientRegistration clientRegistration, DexClientRegistrar registrar) {
+            this.delegate = new InMemoryReactiveClientRegistrationRepository(clientRegistration);
+            this.registrar = registrar;
+        }
+
+        @Override
+        public Mono<ClientRegistration> findByRegistrationId(String registrationId) {
+            return delegate.findByRegistrationId(registrationId)
+                    .flatMap(clientRegistration -> Mono.fromFuture(registrar::registration, true)
+                            .timeout(registrar.registrationTimeout())
+                            .onErrorMap(TimeoutException.class, e -> new IllegalStateException(
+                                    "Could not register client with Dex in " + registrar.registrationTimeout(), e))
+                            .onErrorMap(e -> !(e instanceof IllegalStateException),
+                                    e -> new IllegalStateException("Could not register client with Dex", e))
+                            .thenReturn(clientRegistration));
+        }
+
+        @Override
+        public Iterator<ClientRegistration> iterator() {
+            return delegate.iterator();
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.Map;
+import java.util.UUID;
+
+import org.jspecify.annotations.Nullable;
+import org.springframework.boot.docker.compose.core.RunningService;
+import org.springframework.boot.docker.compose.service.connection.DockerComposeConnectionDetailsFactory;
+import org.springframework.boot.docker.compose.service.connection.DockerComposeConnectionSource;
+import org.springframework.web.util.UriComponentsBuilder;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.DexServer;
+import wf.garnier.testcontainers.dexidp.DexTokens;
+
+/**
+ * {@link DockerComposeConnectionDetailsFactory} to create {@link DexConnectionDetails} for a Dex
+ * Docker Compose service, using the {@code dexidp/dex} or {@code bitnami/dex} image.
+ * <p>
+ * The issuer URI defaults to {@code http://<host>:<mapped port 5556>}, and can be set with the
+ * {@code wf.garnier.dex.issuer-uri} label on the service, to match the {@code issuer} in the Dex
+ * configuration. The application's client is registered through the Dex gRPC API, which must be
+ * enabled on port {@code 5557} and mapped.
+ * <p>
+ * The issuer URI must match the {@code issuer} Dex advertises. Docker Compose services are reached on
+ * {@code 127.0.0.1} by default, so a Dex configured with {@code http://localhost:5556} needs the label.
+ * <p>
+ * Every application context gets its own client, so that applications sharing the same Dex service do
+ * not overwrite each other's redirect URI. The client is removed from Dex, and the gRPC channel closed,
+ * when the application context closes.
+ */
+class DexDockerComposeConnectionDetailsFactory extends DockerComposeConnectionDetailsFactory<DexConnectionDetails> {
+
+    private static final String[] DEX_CONTAINER_NAMES = {"dexidp/dex", "bitnami/dex"};
+
+    private static final String ISSUER_URI_LABEL = "wf.garnier.dex.issuer-uri";
+
+    private static final int DEX_HTTP_PORT = 5556;
+
+    private static final int DEX_GRPC_PORT = 5557;
+
+    DexDockerComposeConnectionDetailsFactory() {
+        super(DEX_CONTAINER_NAMES);
+    }
+
+    @Override
+    protected DexConnectionDetails getDockerComposeConnectionDetails(DockerComposeConnectionSource source) {
+        return new DexDockerComposeConnectionDetails(source.getRunningService());
+    }
+
+    static final class DexDockerComposeConnectionDetails extends DockerComposeConnectionDetails implements DexConnectionDetails {
+
+        private final RunningService service;
+
+        private final DexServer server;
+
+        private DexContainer.Client client = new DexContainer.Client(
+                "spring-client-" + UUID.randomUUID().toString().substring(0, 8),
+                "spring-secret",
+                "<will be updated>"
+        );
+
+        private boolean registered = false;
+
+        DexDockerComposeConnectionDetails(RunningService service) {
+            super(service);
+            this.service = service;
+            var issuerUri = service.labels().getOrDefault(
+                    ISSUER_URI_LABEL,
+                    "http://%s:%s".formatted(service.host(), service.ports().get(DEX_HTTP_PORT))
+            );
+            this.server = new DexServer(issuerUri, service.host(), grpcPort());
+        }
+
+        private int grpcPort() {
+            try {
+                return service.ports().get(DEX_GRPC_PORT);
+            } catch (IllegalStateException e) {
+                // The gRPC API is only needed to register the client
+                return -1;
+            }
+        }
+
+        @Override
+        public String getIssuerUri() {
+            return server.getIssuerUri();
+        }
+
+        @Override
+        public String getAuthorizationUri() {
+            return server.getOpenidConfiguration().authorizationEndpoint();
+        }
+
+        @Override
+        public String getTokenUri() {
+            return server.getOpenidConfiguration().tokenEndpoint();
+        }
+
+        @Override
+        @Nullable
+        public String getUserInfoUri() {
+            return server.getOpenidConfiguration().userinfoEndpoint();
+        }
+
+        @Override
+        public String getJwkSetUri() {
+            return server.getOpenidConfiguration().jwksUri();
+        }
+
+        @Override
+        public String getJwkSet() {
+            return server.getJwks().json();
+        }
+
+        /**
+         * Tokens are issued to this context's client, which is registered first when no web server
+         * registered it, for example in MockMvc tests.
+         */
+        @Override
+        public DexTokens.TokenResponse getToken(DexContainer.User user, String... scopes) {
+            return server.getTokens().getToken(registeredClient(), user, scopes);
+        }
+
+        @Override
+        public Map<String, Object> getProviderConfigurationMetadata() {
+            return server.getOpenidConfiguration().metadata();
+        }
+
+        @Override
+        public String getClientId() {
+            return client.clientId();
+        }
+
+        @Override
+        public String getClientSecret() {
+            return client.clientSecret();
+        }
+
+        @Override
+        public synchronized void registerClient(int port) {
+            var redirectUri = UriComponentsBuilder.fromUriString("http://localhost")
+                    .port(port)
+                    .path("/login/oauth2/code/" + getRegistrationName())
+                    .toUriString();
+            if (registered && redirectUri.equals(client.redirectUri())) {
+                return;
+            }
+            register(new DexContainer.Client(client.clientId(), client.clientSecret(), redirectUri));
+        }
+
+        /**
+         * Remove the client from Dex, and close the gRPC channel.
+         */
+        @Override
+        public synchronized void unregisterClient() {
+            try {
+                if (registered) {
+                    registered = false;
+                    server.unregisterClient(client.clientId());
+                }
+            } finally {
+                server.close();
+            }
+        }
+
+        private synchronized DexContainer.Client registeredClient() {
+            if (!registered) {
+                register(client);
+            }
+            return client;
+        }
+
+        private void register(DexContainer.Client client) {
+            if (grpcPort() < 0) {
+                throw new IllegalStateException("Could not register client with Dex service '%s': the gRPC API must be enabled on port %s and mapped"
+                        .formatted(service.name(), DEX_GRPC_PORT));
+            }
+            server.registerClient(client);
+            this.client = client;
+            registered = true;
+        }
+
+        DexServer getServer() {
+            return server;
+        }
+    }
+}
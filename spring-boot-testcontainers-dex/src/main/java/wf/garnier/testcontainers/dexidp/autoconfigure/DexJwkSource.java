@@ -0,0 +1,59 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.text.ParseException;
+import java.util.List;
+
+import com.nimbusds.jose.KeySourceException;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSelector;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.source.JWKSource;
+import com.nimbusds.jose.proc.SecurityContext;
+
+/**
+ * A {@link JWKSource} over the JWKS cached by {@link DexConnectionDetails}. The key set is only parsed
+ * again when the container fetched a new one, so selecting keys does not make any call to Dex.
+ */
+final class DexJwkSource implements JWKSource<SecurityContext> {
+
+    private final DexConnectionDetails connectionDetails;
+
+    private volatile ParsedJwkSet parsed;
+
+    DexJwkSource(DexConnectionDetails connectionDetails) {
+        this.connectionDetails = connectionDetails;
+    }
+
+    @Override
+    public List<JWK> get(JWKSelector jwkSelector, SecurityContext context) throws KeySourceException {
+        return jwkSelector.select(jwkSet());
+    }
+
+    /**
+     * Fetch and parse the key set ahead of the first token verification.
+     */
+    void warm() {
+        try {
+            jwkSet();
+        } catch (KeySourceException e) {
+            throw new IllegalStateException("Could not load the JWKS from Dex", e);
+        }
+    }
+
+    private JWKSet jwkSet() throws KeySourceException {
+        var json = connectionDetails.getJwkSet();
+        var current = parsed;
+        if (current == null || !current.json().equals(json)) {
+            try {
+                current = new ParsedJwkSet(json, JWKSet.parse(json));
+            } catch (ParseException e) {
+                throw new KeySourceException("Could not parse the JWKS from Dex", e);
+            }
+            parsed = current;
+        }
+        return current.jwkSet();
+    }
+
+    private record ParsedJwkSet(String json, JWKSet jwkSet) {
+    }
+}
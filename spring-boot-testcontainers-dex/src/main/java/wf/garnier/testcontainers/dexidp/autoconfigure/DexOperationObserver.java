@@ -0,0 +1,58 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.function.Supplier;
+
+/**
+ * Observes the calls the application makes to Dex, such as registering its client or retrieving the
+ * provider metadata. Does nothing unless an {@code ObservationRegistry} is available, see
+ * {@link ObservationDexOperationObserver}.
+ */
+interface DexOperationObserver {
+
+    /**
+     * Registering the application's client with Dex.
+     */
+    String CLIENT_REGISTRATION = "dex.client.register";
+
+    /**
+     * Removing the application's client from Dex.
+     */
+    String CLIENT_UNREGISTRATION = "dex.client.unregister";
+
+    /**
+     * Retrieving the provider metadata or the JWKS of Dex.
+     */
+    String METADATA_RETRIEVAL = "dex.metadata";
+
+    DexOperationObserver NOOP = new DexOperationObserver() {
+        @Override
+        public <T> T observe(String name, DexConnectionDetails connectionDetails, Supplier<T> operation) {
+            return operation.get();
+        }
+    };
+
+    /**
+     * Run the operation, observing it.
+     *
+     * @param name              the name of the operation
+     * @param connectionDetails the connection details the operation uses
+     * @param operation         the operation
+     * @param <T>               the result type
+     * @return the result of the operation
+     */
+    <T> T observe(String name, DexConnectionDetails connectionDetails, Supplier<T> operation);
+
+    /**
+     * Run the operation, observing it.
+     *
+     * @param name              the name of the operation
+     * @param connectionDetails the connection details the operation uses
+     * @param operation         the operation
+     */
+    default void observe(String name, DexConnectionDetails connectionDetails, Runnable operation) {
+        observe(name, connectionDetails, () -> {
+            operation.run();
+            return null;
+        });
+    }
+}
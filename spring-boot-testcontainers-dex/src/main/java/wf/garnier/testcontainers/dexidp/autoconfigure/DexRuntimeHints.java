@@ -0,0 +1,71 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.List;
+import java.util.concurrent.Executors;
+
+import org.jspecify.annotations.Nullable;
+import org.springframework.aop.framework.AopProxyUtils;
+import org.springframework.aot.hint.ExecutableMode;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.RuntimeHintsRegistrar;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.util.ClassUtils;
+
+/**
+ * {@link RuntimeHintsRegistrar} for running Dex-backed applications and tests as native images.
+ * <p>
+ * Registers the {@link DexConnectionDetails} factories, which are instantiated reflectively from
+ * {@code spring.factories}, JDK proxies for lazily-injected {@link DexConnectionDetails}, and the
+ * generated gRPC and protobuf classes in {@value #GRPC_PACKAGE}, whose accessors protobuf looks up by
+ * name. gRPC transports and resolvers are discovered through {@code META-INF/services}.
+ */
+class DexRuntimeHints implements RuntimeHintsRegistrar {
+
+    static final String GRPC_PACKAGE = "wf.garnier.testcontainers.dexidp.grpc";
+
+    static final List<String> GRPC_TYPES = List.of(GRPC_PACKAGE + ".DexGrpc", GRPC_PACKAGE + ".DexGrpcApi");
+
+    static final List<String> CONNECTION_DETAILS_FACTORIES = List.of(
+            "wf.garnier.testcontainers.dexidp.autoconfigure.DexConnectionDetailsFactory",
+            "wf.garnier.testcontainers.dexidp.autoconfigure.DexDockerComposeConnectionDetailsFactory"
+    );
+
+    @Override
+    public void registerHints(RuntimeHints hints, @Nullable ClassLoader classLoader) {
+        for (var factory : CONNECTION_DETAILS_FACTORIES) {
+            hints.reflection().registerType(TypeReference.of(factory), MemberCategory.INVOKE_DECLARED_CONSTRUCTORS);
+        }
+        hints.reflection().registerType(DexConnectionDetails.class, MemberCategory.INVOKE_PUBLIC_METHODS);
+        hints.proxies().registerJdkProxy(AopProxyUtils.completeJdkProxyInterfaces(DexConnectionDetails.class));
+
+        for (var grpcType : GRPC_TYPES) {
+            registerGrpcType(hints, load(grpcType, classLoader));
+        }
+        hints.resources().registerPattern("META-INF/services/io.grpc.*");
+
+        // DexLoadGenerator uses virtual threads when the runtime has them
+        hints.reflection().registerType(
+                Executors.class,
+                hint -> hint.withMethod("newVirtualThreadPerTaskExecutor", List.of(), ExecutableMode.INVOKE)
+        );
+    }
+
+    /**
+     * Register the type and all its nested types: messages, their builders and the service stubs.
+     */
+    private static void registerGrpcType(RuntimeHints hints, Class<?> type) {
+        hints.reflection().registerType(type, MemberCategory.INVOKE_PUBLIC_METHODS);
+        for (var nested : type.getDeclaredClasses()) {
+            registerGrpcType(hints, nested);
+        }
+    }
+
+    private static Class<?> load(String className, @Nullable ClassLoader classLoader) {
+        try {
+            return ClassUtils.forName(className, classLoader);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException("Could not load " + className, e);
+        }
+    }
+}
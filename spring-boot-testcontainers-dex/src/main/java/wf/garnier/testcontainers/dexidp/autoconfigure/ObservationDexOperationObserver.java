@@ -0,0 +1,39 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.function.Supplier;
+
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+/**
+ * A {@link DexOperationObserver} recording Micrometer {@link Observation}s, tagged with the
+ * {@code registration.name} and the {@code outcome} of the operation, {@code success} or
+ * {@code error}. With a {@code MeterRegistry}, every observation is also recorded as a timer.
+ */
+final class ObservationDexOperationObserver implements DexOperationObserver {
+
+    private final ObservationRegistry observationRegistry;
+
+    ObservationDexOperationObserver(ObservationRegistry observationRegistry) {
+        this.observationRegistry = observationRegistry;
+    }
+
+    @Override
+    public <T> T observe(String name, DexConnectionDetails connectionDetails, Supplier<T> operation) {
+        var observation = Observation.createNotStarted(name, observationRegistry)
+                .contextualName(name.replace('.', ' '))
+                .lowCardinalityKeyValue("registration.name", connectionDetails.getRegistrationName())
+                .start();
+        try (var scope = observation.openScope()) {
+            var result = operation.get();
+            observation.lowCardinalityKeyValue("outcome", "success");
+            return result;
+        } catch (RuntimeException e) {
+            observation.lowCardinalityKeyValue("outcome", "error");
+            observation.error(e);
+            throw e;
+        } finally {
+            observation.stop();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package wf.garnier.testcontainers.dexidp.test;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.servlet.request.RequestPostProcessor;
+import org.springframework.web.context.support.WebApplicationContextUtils;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.autoconfigure.DexConnectionDetails;
+
+/**
+ * MockMvc {@link RequestPostProcessor}s that authenticate requests with real tokens, issued by the Dex
+ * container of the application under test, without going through a browser login.
+ * <pre>{@code
+ * mockMvc.perform(get("/api/me").with(dexToken(container.getUser())))
+ *         .andExpect(status().isOk());
+ * }</pre>
+ * Tokens are cached until they are about to expire, so authenticated requests do not make calls to Dex.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexConnectionDetails#getToken(DexContainer.User, String...)
+ */
+public final class DexRequestPostProcessors {
+
+    private DexRequestPostProcessors() {
+    }
+
+    /**
+     * Add an access token for the user, as an {@code Authorization: Bearer} header. The token is obtained
+     * from the {@link DexConnectionDetails} bean of the application context.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile}.
+     *
+     * @param user   the User, who must be registered with the container
+     * @param scopes the scopes to request
+     * @return the request post processor
+     */
+    public static RequestPostProcessor dexToken(DexContainer.User user, String... scopes) {
+        return request -> {
+            var connectionDetails = WebApplicationContextUtils
+                    .getRequiredWebApplicationContext(request.getServletContext())
+                    .getBean(DexConnectionDetails.class);
+            var token = connectionDetails.getToken(user, scopes);
+            request.addHeader(HttpHeaders.AUTHORIZATION, "Bearer " + token.accessToken());
+            return request;
+        };
+    }
+}
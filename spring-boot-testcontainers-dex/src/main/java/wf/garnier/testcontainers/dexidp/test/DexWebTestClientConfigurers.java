@@ -0,0 +1,63 @@
+package wf.garnier.testcontainers.dexidp.test;
+
+import org.jspecify.annotations.Nullable;
+import org.springframework.http.client.reactive.ClientHttpConnector;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.test.web.reactive.server.WebTestClientConfigurer;
+import org.springframework.web.reactive.function.client.ClientRequest;
+import org.springframework.web.server.adapter.WebHttpHandlerBuilder;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.autoconfigure.DexConnectionDetails;
+
+/**
+ * {@link WebTestClientConfigurer}s that authenticate requests with real tokens, issued by the Dex
+ * container of the application under test, without going through a browser login.
+ * <pre>{@code
+ * webTestClient.mutateWith(dexToken(connectionDetails, container.getUser()))
+ *         .get().uri("/api/me")
+ *         .exchange()
+ *         .expectStatus().isOk();
+ * }</pre>
+ * Tokens are cached until they are about to expire, so authenticated requests do not make calls to Dex.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexConnectionDetails#getToken(DexContainer.User, String...)
+ */
+public final class DexWebTestClientConfigurers {
+
+    private DexWebTestClientConfigurers() {
+    }
+
+    /**
+     * Add an access token for the user to every request, as an {@code Authorization: Bearer} header.
+     * The token is looked up for each request, so long-lived clients do not send expired tokens.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile}.
+     *
+     * @param connectionDetails the connection details of the application under test
+     * @param user              the User, who must be registered with the container
+     * @param scopes            the scopes to request
+     * @return the configurer
+     */
+    public static WebTestClientConfigurer dexToken(DexConnectionDetails connectionDetails, DexContainer.User user, String... scopes) {
+        return new DexTokenConfigurer(connectionDetails, user, scopes);
+    }
+
+    private record DexTokenConfigurer(DexConnectionDetails connectionDetails, DexContainer.User user,
+                                      String[] scopes) implements WebTestClientConfigurer {
+
+        @Override
+        public void afterConfigurerAdded(WebTestClient.Builder builder,
+                                         @Nullable WebHttpHandlerBuilder httpHandlerBuilder,
+                                         @Nullable ClientHttpConnector connector) {
+            // Minting a token blocks, keep it off event loop threads
+            builder.filter((request, next) -> Mono.fromCallable(() -> connectionDetails.getToken(user, scopes))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMap(token -> next.exchange(ClientRequest.from(request)
+                            .headers(headers -> headers.setBearerAuth(token.accessToken()))
+                            .build())));
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class DexClientRegistrarTest {
+
+    private final StubDexConnectionDetails connectionDetails = new StubDexConnectionDetails();
+
+    private final DexClientRegistrar registrar = new DexClientRegistrar(connectionDetails, DexOperationObserver.NOOP);
+
+    @Test
+    void registersInOrder() {
+        registrar.register(8080);
+        registrar.register(8081);
+        registrar.register(8082);
+
+        registrar.awaitRegistration();
+
+        assertThat(connectionDetails.registeredPorts).containsExactly(8080, 8081, 8082);
+        assertThat(registrar.getRegistrationLatency().count()).isEqualTo(3);
+    }
+
+    @Test
+    void registersInBackground() throws InterruptedException {
+        var executor = Executors.newSingleThreadExecutor();
+        var blocked = new CountDownLatch(1);
+        executor.execute(() -> {
+            try {
+                blocked.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        try {
+            var registrar = new DexClientRegistrar(connectionDetails, executor, DexOperationObserver.NOOP);
+
+            registrar.register(8080);
+
+            assertThat(registrar.registration()).isNotDone();
+            assertThat(connectionDetails.registeredPorts).isEmpty();
+            blocked.countDown();
+            registrar.awaitRegistration();
+            assertThat(connectionDetails.registeredPorts).containsExactly(8080);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void registrationFailure() {
+        connectionDetails.registrationFailure = new IllegalStateException("Dex is down");
+
+        registrar.register(8080);
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(registrar::awaitRegistration)
+                .withMessage("Could not register client with Dex")
+                .withRootCauseInstanceOf(IllegalStateException.class)
+                .havingRootCause()
+                .withMessage("Dex is down");
+        assertThat(registrar.getRegistrationLatency().count()).isZero();
+    }
+
+    @Test
+    void registersAfterFailure() {
+        connectionDetails.registrationFailure = new IllegalStateException("Dex is down");
+        registrar.register(8080);
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(registrar::awaitRegistration);
+
+        connectionDetails.registrationFailure = null;
+        registrar.register(8081);
+        registrar.awaitRegistration();
+
+        assertThat(connectionDetails.registeredPorts).containsExactly(8081);
+    }
+
+    @Test
+    void unregisterWaitsForRegistration() {
+        registrar.register(8080);
+
+        registrar.unregister();
+
+        assertThat(connectionDetails.registeredPorts).containsExactly(8080);
+        assertThat(connectionDetails.unregistrations).isEqualTo(1);
+        assertThat(connectionDetails.releases).isZero();
+    }
+
+    @Test
+    void release() {
+        registrar.register(8080);
+
+        registrar.release();
+
+        assertThat(connectionDetails.releases).isEqualTo(1);
+        assertThat(connectionDetails.unregistrations).isZero();
+    }
+}
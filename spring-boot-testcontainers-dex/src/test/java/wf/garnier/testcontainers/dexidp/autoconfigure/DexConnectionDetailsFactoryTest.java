@@ -0,0 +1,145 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.config.Scope;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnection;
+import org.springframework.boot.testcontainers.service.connection.ServiceConnectionAutoConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class DexConnectionDetailsFactoryTest {
+
+    static DexContainer container = new DexContainer(DexContainer.DEFAULT_IMAGE_NAME.withTag(DexContainer.DEFAULT_TAG));
+
+    private final ApplicationContextRunner contextRunner = new ApplicationContextRunner()
+            .withConfiguration(AutoConfigurations.of(ServiceConnectionAutoConfiguration.class, DexContainerAutoConfiguration.class))
+            .withInitializer(context -> {
+                context.getBeanFactory().registerScope("restart", new ContainerScope());
+                context.getBeanFactory().registerScope("shared", new ContainerScope());
+            });
+
+    @BeforeAll
+    static void beforeAll() {
+        container.start();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        container.stop();
+    }
+
+    @Test
+    void clientPerContext() {
+        contextRunner.withUserConfiguration(SharedDexConfiguration.class).run(first ->
+                contextRunner.withUserConfiguration(SharedDexConfiguration.class).run(second ->
+                        assertThat(first.getBean(DexConnectionDetails.class).getClientId())
+                                .startsWith("spring-client-")
+                                .isNotEqualTo(second.getBean(DexConnectionDetails.class).getClientId())
+                )
+        );
+    }
+
+    @Test
+    void clientRemovedWhenContextCloses() {
+        var clientId = new AtomicReference<String>();
+        var runner = contextRunner.withUserConfiguration(SharedDexConfiguration.class);
+
+        runner.run(context -> {
+            var details = context.getBean(DexConnectionDetails.class);
+            details.registerClient(1234);
+            clientId.set(details.getClientId());
+            assertThat(container.getClient(clientId.get())).isNotNull();
+        });
+
+        assertThat(container.getClient(clientId.get())).isNull();
+        runner.run(context -> assertThat(context.getBean(DexConnectionDetails.class).getClientId())
+                .isNotEqualTo(clientId.get()));
+    }
+
+    @Test
+    void clientReusedWhenContainerIsRestartScoped() {
+        var clientId = new AtomicReference<String>();
+        var runner = contextRunner.withUserConfiguration(RestartScopedDexConfiguration.class);
+
+        runner.run(context -> {
+            var details = context.getBean(DexConnectionDetails.class);
+            details.registerClient(1234);
+            clientId.set(details.getClientId());
+        });
+
+        assertThat(container.getClient(clientId.get())).isNotNull();
+        runner.run(context -> {
+            var details = context.getBean(DexConnectionDetails.class);
+            assertThat(details.getClientId()).isEqualTo(clientId.get());
+            details.registerClient(5678);
+            assertThat(container.getClient(clientId.get()).redirectUri())
+                    .isEqualTo("http://localhost:5678/login/oauth2/code/dex");
+        });
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    static class SharedDexConfiguration {
+
+        @Bean
+        @ServiceConnection
+        @org.springframework.context.annotation.Scope("shared")
+        DexContainer dexContainer() {
+            return container;
+        }
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    static class RestartScopedDexConfiguration {
+
+        @Bean
+        @ServiceConnection
+        @org.springframework.context.annotation.Scope("restart")
+        DexContainer dexContainer() {
+            return container;
+        }
+    }
+
+    /**
+     * A scope that outlives application contexts, like DevTools' restart scope: it always returns the
+     * container started by the test, which is never destroyed by the context.
+     */
+    static class ContainerScope implements Scope {
+
+        @Override
+        public Object get(String name, ObjectFactory<?> objectFactory) {
+            return container;
+        }
+
+        @Override
+        public Object remove(String name) {
+            return null;
+        }
+
+        @Override
+        public void registerDestructionCallback(String name, Runnable callback) {
+        }
+
+        @Override
+        public Object resolveContextualObject(String key) {
+            return null;
+        }
+
+        @Override
+        public String getConversationId() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.Test;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class DexConnectionDetailsTest {
+
+    private static final String ISSUER_URI = "http://dex.example.com/dex";
+
+    @Test
+    void endpointsFromIssuer() {
+        var connectionDetails = new MinimalDexConnectionDetails(Map.of());
+
+        assertThat(connectionDetails.getAuthorizationUri()).isEqualTo(ISSUER_URI + "/auth");
+        assertThat(connectionDetails.getTokenUri()).isEqualTo(ISSUER_URI + "/token");
+        assertThat(connectionDetails.getUserInfoUri()).isNull();
+        assertThat(connectionDetails.getJwkSetUri()).isEqualTo(ISSUER_URI + "/keys");
+    }
+
+    @Test
+    void endpointsFromProviderMetadata() {
+        var connectionDetails = new MinimalDexConnectionDetails(Map.of(
+                "authorization_endpoint", "http://idp.example.com/authorize",
+                "token_endpoint", "http://idp.example.com/oauth/token",
+                "userinfo_endpoint", "http://idp.example.com/me",
+                "jwks_uri", "http://idp.example.com/jwks.json"
+        ));
+
+        assertThat(connectionDetails.getAuthorizationUri()).isEqualTo("http://idp.example.com/authorize");
+        assertThat(connectionDetails.getTokenUri()).isEqualTo("http://idp.example.com/oauth/token");
+        assertThat(connectionDetails.getUserInfoUri()).isEqualTo("http://idp.example.com/me");
+        assertThat(connectionDetails.getJwkSetUri()).isEqualTo("http://idp.example.com/jwks.json");
+    }
+
+    @Test
+    void jwkSetFromJwkSetUri() throws IOException {
+        var jwkSet = "{\"keys\":[{\"kty\":\"RSA\",\"kid\":\"key-1\",\"n\":\"AQAB\",\"e\":\"AQAB\"}]}";
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/keys", exchange -> {
+            var body = jwkSet.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            try (var response = exchange.getResponseBody()) {
+                response.write(body);
+            }
+        });
+        server.start();
+        try {
+            var jwkSetUri = "http://localhost:%s/keys".formatted(server.getAddress().getPort());
+            var connectionDetails = new MinimalDexConnectionDetails(Map.of("jwks_uri", jwkSetUri));
+
+            assertThat(connectionDetails.getJwkSet()).isEqualTo(jwkSet);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void jwkSetUnavailable() throws IOException {
+        var server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/keys", exchange -> exchange.sendResponseHeaders(404, -1));
+        server.start();
+        try {
+            var jwkSetUri = "http://localhost:%s/keys".formatted(server.getAddress().getPort());
+            var connectionDetails = new MinimalDexConnectionDetails(Map.of("jwks_uri", jwkSetUri));
+
+            assertThatExceptionOfType(IllegalStateException.class)
+                    .isThrownBy(connectionDetails::getJwkSet)
+                    .withMessage("Could not fetch the JWKS from " + jwkSetUri);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    void tokensNotSupported() {
+        var connectionDetails = new MinimalDexConnectionDetails(Map.of());
+        var user = new DexContainer.User("alice", "alice@example.com", "alice-password");
+
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> connectionDetails.getToken(user))
+                .withMessage(MinimalDexConnectionDetails.class.getName() + " does not issue tokens");
+    }
+
+    /**
+     * Implements only the methods that have no default, like implementations written against earlier
+     * versions of {@link DexConnectionDetails}.
+     */
+    static class MinimalDexConnectionDetails implements DexConnectionDetails {
+
+        private final Map<String, Object> providerConfigurationMetadata;
+
+        MinimalDexConnectionDetails(Map<String, Object> providerConfigurationMetadata) {
+            this.providerConfigurationMetadata = providerConfigurationMetadata;
+        }
+
+        @Override
+        public String getIssuerUri() {
+            return ISSUER_URI;
+        }
+
+        @Override
+        public Map<String, Object> getProviderConfigurationMetadata() {
+            return providerConfigurationMetadata;
+        }
+
+        @Override
+        public String getClientId() {
+            return "minimal-client";
+        }
+
+        @Override
+        public String getClientSecret() {
+            return "minimal-secret";
+        }
+
+        @Override
+        public void registerClient(int port) {
+        }
+    }
+}
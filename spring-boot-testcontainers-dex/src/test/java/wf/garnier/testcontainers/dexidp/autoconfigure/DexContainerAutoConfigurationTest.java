@@ -0,0 +1,240 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.FilteredClassLoader;
+import org.springframework.boot.test.context.runner.ApplicationContextRunner;
+import org.springframework.boot.test.context.runner.ReactiveWebApplicationContextRunner;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.security.oauth2.client.registration.ClientRegistrationRepository;
+import org.springframework.security.oauth2.client.registration.ReactiveClientRegistrationRepository;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.security.oauth2.jwt.ReactiveJwtDecoder;
+import org.springframework.security.oauth2.server.resource.authentication.BearerTokenAuthenticationToken;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class DexContainerAutoConfigurationTest {
+
+    private static final AutoConfigurations autoConfigurations = AutoConfigurations.of(
+            DexContainerReactiveAutoConfiguration.class,
+            DexContainerAutoConfiguration.class
+    );
+
+    private final WebApplicationContextRunner servletContextRunner = new WebApplicationContextRunner()
+            .withConfiguration(autoConfigurations)
+            .withBean(DexConnectionDetails.class, StubDexConnectionDetails::new);
+
+    private final ReactiveWebApplicationContextRunner reactiveContextRunner = new ReactiveWebApplicationContextRunner()
+            .withConfiguration(autoConfigurations)
+            .withBean(DexConnectionDetails.class, StubDexConnectionDetails::new);
+
+    @Test
+    void noConnectionDetails() {
+        new WebApplicationContextRunner()
+                .withConfiguration(autoConfigurations)
+                .run(context -> assertThat(context)
+                        .doesNotHaveBean(ClientRegistrationRepository.class)
+                        .doesNotHaveBean(DexClientRegistrar.class));
+    }
+
+    @Test
+    void servletClientRegistrationRepository() {
+        servletContextRunner.run(context -> {
+            assertThat(context)
+                    .hasSingleBean(ClientRegistrationRepository.class)
+                    .doesNotHaveBean(ReactiveClientRegistrationRepository.class);
+            var registration = context.getBean(ClientRegistrationRepository.class).findByRegistrationId("dex");
+            assertThat(registration.getClientId()).isEqualTo("stub-client");
+            assertThat(registration.getProviderDetails().getIssuerUri()).isEqualTo(StubDexConnectionDetails.ISSUER_URI);
+            assertThat(registration.getProviderDetails().getTokenUri()).isEqualTo(StubDexConnectionDetails.ISSUER_URI + "/token");
+        });
+    }
+
+    @Test
+    void reactiveClientRegistrationRepository() {
+        reactiveContextRunner.run(context -> {
+            assertThat(context)
+                    .hasSingleBean(ReactiveClientRegistrationRepository.class)
+                    .hasSingleBean(DexClientRegistrar.class)
+                    .doesNotHaveBean(ClientRegistrationRepository.class);
+            var registration = context.getBean(ReactiveClientRegistrationRepository.class)
+                    .findByRegistrationId("dex")
+                    .block();
+            assertThat(registration.getClientId()).isEqualTo("stub-client");
+        });
+    }
+
+    @Test
+    void unregistersClientWhenContextCloses() {
+        var connectionDetails = new StubDexConnectionDetails();
+        new WebApplicationContextRunner()
+                .withConfiguration(autoConfigurations)
+                .withBean(DexConnectionDetails.class, () -> connectionDetails)
+                .run(context -> assertThat(connectionDetails.unregistrations).isZero());
+
+        assertThat(connectionDetails.unregistrations).isEqualTo(1);
+        assertThat(connectionDetails.releases).isZero();
+    }
+
+    @Test
+    void servletJwtDecoder() throws Exception {
+        var signingKey = new RSAKeyGenerator(2048).keyID("test-key").generate();
+        var connectionDetails = new StubDexConnectionDetails();
+        connectionDetails.jwkSet = new JWKSet(signingKey.toPublicJWK()).toString();
+        new WebApplicationContextRunner()
+                .withConfiguration(autoConfigurations)
+                .withBean(DexConnectionDetails.class, () -> connectionDetails)
+                .run(context -> {
+                    assertThat(context).hasSingleBean(JwtDecoder.class).doesNotHaveBean(ReactiveJwtDecoder.class);
+                    var jwt = context.getBean(JwtDecoder.class).decode(jwt(signingKey, StubDexConnectionDetails.ISSUER_URI));
+                    assertThat(jwt.getSubject()).isEqualTo("alice");
+                    assertThatExceptionOfType(JwtException.class)
+                            .isThrownBy(() -> context.getBean(JwtDecoder.class).decode(jwt(signingKey, "http://other.example.com")));
+                });
+    }
+
+    @Test
+    void reactiveJwtDecoder() throws Exception {
+        var signingKey = new RSAKeyGenerator(2048).keyID("test-key").generate();
+        var connectionDetails = new StubDexConnectionDetails();
+        connectionDetails.jwkSet = new JWKSet(signingKey.toPublicJWK()).toString();
+        new ReactiveWebApplicationContextRunner()
+                .withConfiguration(autoConfigurations)
+                .withBean(DexConnectionDetails.class, () -> connectionDetails)
+                .run(context -> {
+                    assertThat(context).hasSingleBean(ReactiveJwtDecoder.class).doesNotHaveBean(JwtDecoder.class);
+                    var jwt = context.getBean(ReactiveJwtDecoder.class)
+                            .decode(jwt(signingKey, StubDexConnectionDetails.ISSUER_URI))
+                            .block();
+                    assertThat(jwt.getSubject()).isEqualTo("alice");
+                });
+    }
+
+    @Test
+    void noJwtDecoderWithoutResourceServer() {
+        var withoutResourceServer = new FilteredClassLoader(BearerTokenAuthenticationToken.class);
+        servletContextRunner.withClassLoader(withoutResourceServer)
+                .run(context -> assertThat(context).doesNotHaveBean(JwtDecoder.class));
+        reactiveContextRunner.withClassLoader(withoutResourceServer)
+                .run(context -> assertThat(context).doesNotHaveBean(ReactiveJwtDecoder.class));
+    }
+
+    @Test
+    void userDefinedJwtDecoder() {
+        JwtDecoder userDecoder = token -> {
+            throw new JwtException("user-defined");
+        };
+        servletContextRunner.withBean(JwtDecoder.class, () -> userDecoder)
+                .run(context -> assertThat(context).getBean(JwtDecoder.class).isSameAs(userDecoder));
+    }
+
+    @Test
+    void observations() {
+        var contexts = new CopyOnWriteArrayList<Observation.Context>();
+        var observationRegistry = observationRegistry(contexts);
+        var connectionDetails = new StubDexConnectionDetails();
+        connectionDetails.registrationFailure = new IllegalStateException("Dex is down");
+
+        servletContextRunner.withBean(ObservationRegistry.class, () -> observationRegistry)
+                .withBean(DexConnectionDetails.class, () -> connectionDetails)
+                .run(context -> {
+                    assertThat(context).getBean(DexOperationObserver.class).isInstanceOf(ObservationDexOperationObserver.class);
+                    var registrar = context.getBean(DexClientRegistrar.class);
+                    registrar.register(8080);
+                    assertThatExceptionOfType(IllegalStateException.class).isThrownBy(registrar::awaitRegistration);
+                });
+
+        assertThat(contexts)
+                .anySatisfy(observation -> {
+                    assertThat(observation.getName()).isEqualTo(DexOperationObserver.METADATA_RETRIEVAL);
+                    assertThat(observation.getLowCardinalityKeyValue("registration.name").getValue()).isEqualTo("dex");
+                    assertThat(observation.getLowCardinalityKeyValue("outcome").getValue()).isEqualTo("success");
+                })
+                .anySatisfy(observation -> {
+                    assertThat(observation.getName()).isEqualTo(DexOperationObserver.CLIENT_REGISTRATION);
+                    assertThat(observation.getLowCardinalityKeyValue("outcome").getValue()).isEqualTo("error");
+                    assertThat(observation.getError()).hasMessage("Dex is down");
+                })
+                .anySatisfy(observation -> assertThat(observation.getName())
+                        .isEqualTo(DexOperationObserver.CLIENT_UNREGISTRATION));
+    }
+
+    @Test
+    void metadataObservationWrapsFetch() {
+        var contexts = new CopyOnWriteArrayList<Observation.Context>();
+        var observationRegistry = observationRegistry(contexts);
+        var connectionDetails = new StubDexConnectionDetails();
+        connectionDetails.metadataFailure = new IllegalStateException("Dex is down");
+
+        servletContextRunner.withBean(ObservationRegistry.class, () -> observationRegistry)
+                .withBean(DexConnectionDetails.class, () -> connectionDetails)
+                .run(context -> assertThat(context).hasFailed());
+
+        assertThat(contexts).anySatisfy(observation -> {
+            assertThat(observation.getName()).isEqualTo(DexOperationObserver.METADATA_RETRIEVAL);
+            assertThat(observation.getLowCardinalityKeyValue("outcome").getValue()).isEqualTo("error");
+            assertThat(observation.getError()).hasMessage("Dex is down");
+        });
+    }
+
+    private static ObservationRegistry observationRegistry(List<Observation.Context> contexts) {
+        var observationRegistry = ObservationRegistry.create();
+        observationRegistry.observationConfig().observationHandler(new ObservationHandler<>() {
+            @Override
+            public void onStop(Observation.Context context) {
+                contexts.add(context);
+            }
+
+            @Override
+            public boolean supportsContext(Observation.Context context) {
+                return true;
+            }
+        });
+        return observationRegistry;
+    }
+
+    @Test
+    void noClientRegistrationRepositoryOutsideWebApplications() {
+        new ApplicationContextRunner()
+                .withConfiguration(autoConfigurations)
+                .withBean(DexConnectionDetails.class, StubDexConnectionDetails::new)
+                .run(context -> assertThat(context)
+                        .doesNotHaveBean(ClientRegistrationRepository.class)
+                        .doesNotHaveBean(ReactiveClientRegistrationRepository.class));
+    }
+
+    private static String jwt(RSAKey signingKey, String issuer) throws JOSEException {
+        var claims = new JWTClaimsSet.Builder()
+                .issuer(issuer)
+                .subject("alice")
+                .issueTime(new Date())
+                .expirationTime(Date.from(Instant.now().plusSeconds(60)))
+                .build();
+        var jwt = new SignedJWT(new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(signingKey.getKeyID()).build(), claims);
+        jwt.sign(new RSASSASigner(signingKey));
+        return jwt.serialize();
+    }
+}
@@ -0,0 +1,214 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.docker.compose.core.ImageReference;
+import org.springframework.boot.docker.compose.core.RunningService;
+import org.springframework.boot.docker.compose.service.connection.DockerComposeConnectionSource;
+import org.springframework.core.env.StandardEnvironment;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.DexTokens;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * Runs against a {@link DexContainer} standing in for the Docker Compose service, which is described
+ * by a stub {@link RunningService}.
+ *
+ * @author Daniel Garnier-Moiroux
+ */
+class DexDockerComposeConnectionDetailsFactoryTest {
+
+    static DexContainer container = new DexContainer(DexContainer.DEFAULT_IMAGE_NAME.withTag(DexContainer.DEFAULT_TAG));
+
+    private final DexDockerComposeConnectionDetailsFactory factory = new DexDockerComposeConnectionDetailsFactory();
+
+    @BeforeAll
+    static void beforeAll() {
+        container.start();
+    }
+
+    @AfterAll
+    static void afterAll() {
+        container.stop();
+    }
+
+    @Test
+    void dexImages() {
+        assertThat(factory.getConnectionDetails(source(service("dexidp/dex:v2.45.0", Map.of()))))
+                .isInstanceOf(DexConnectionDetails.class);
+        assertThat(factory.getConnectionDetails(source(service("bitnami/dex:2.41.1", Map.of()))))
+                .isInstanceOf(DexConnectionDetails.class);
+        assertThat(factory.getConnectionDetails(source(service("postgres:17", Map.of())))).isNull();
+    }
+
+    @Test
+    void defaultIssuerUri() {
+        var details = new DexDockerComposeConnectionDetailsFactory.DexDockerComposeConnectionDetails(
+                service("dexidp/dex:v2.45.0", Map.of())
+        );
+
+        assertThat(details.getIssuerUri())
+                .isEqualTo("http://%s:%s".formatted(container.getHost(), container.getMappedPort(5556)));
+    }
+
+    @Test
+    void issuerUriLabel() {
+        var details = details();
+
+        assertThat(details.getIssuerUri()).isEqualTo(container.getIssuerUri());
+        assertThat(details.getTokenUri()).isEqualTo(container.getOpenidConfiguration().tokenEndpoint());
+        assertThat(details.getJwkSetUri()).isEqualTo(container.getOpenidConfiguration().jwksUri());
+    }
+
+    @Test
+    void issuerUriMismatch() {
+        var otherHost = container.getHost().equals("localhost") ? "127.0.0.1" : "localhost";
+        var issuerUri = "http://%s:%s/dex".formatted(otherHost, container.getMappedPort(5556));
+        var details = new DexDockerComposeConnectionDetailsFactory.DexDockerComposeConnectionDetails(
+                service("dexidp/dex:v2.45.0", Map.of("wf.garnier.dex.issuer-uri", issuerUri))
+        );
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(details::getTokenUri)
+                .withMessageContaining("advertises issuer " + container.getIssuerUri());
+    }
+
+    @Test
+    void registerClient() {
+        var details = details();
+        var user = container.getUser();
+
+        details.registerClient(1234);
+        var token = details.getToken(user);
+
+        assertThat(container.getJwtVerifier().verify(token.idToken(), details.getClientId()))
+                .containsEntry("email", user.email());
+        assertThat(details.getServer().getGrpcMetrics().getMethod("CreateClient")).isNotNull();
+        details.unregisterClient();
+    }
+
+    @Test
+    void tokensBeforeClientRegistration() {
+        var details = details();
+        var user = container.getUser();
+
+        var token = details.getToken(user);
+
+        assertThat(container.getJwtVerifier().verify(token.idToken(), details.getClientId()))
+                .containsEntry("email", user.email());
+        details.unregisterClient();
+    }
+
+    @Test
+    void clientPerContext() {
+        var first = details();
+        var second = details();
+
+        assertThat(first.getClientId())
+                .startsWith("spring-client-")
+                .isNotEqualTo(second.getClientId());
+    }
+
+    @Test
+    void clientRemovedOnUnregister() {
+        var details = details();
+        var user = container.getUser();
+        details.registerClient(1234);
+        var client = new DexContainer.Client(details.getClientId(), details.getClientSecret(), "http://localhost:1234");
+
+        details.unregisterClient();
+
+        assertThat(details.getServer().getGrpcMetrics().getMethod("DeleteClient").getCalls()).isEqualTo(2);
+        assertThatExceptionOfType(DexTokens.TokenException.class)
+                .isThrownBy(() -> container.getTokens().password(client, user));
+    }
+
+    @Test
+    void registerClientRequiresGrpcPort() {
+        var details = new DexDockerComposeConnectionDetailsFactory.DexDockerComposeConnectionDetails(
+                service("dexidp/dex:v2.45.0", Map.of("wf.garnier.dex.issuer-uri", container.getIssuerUri()),
+                        Map.of(5556, container.getMappedPort(5556)))
+        );
+
+        assertThatExceptionOfType(IllegalStateException.class)
+                .isThrownBy(() -> details.registerClient(1234))
+                .withMessageContaining("the gRPC API must be enabled on port 5557 and mapped");
+    }
+
+    private static DexDockerComposeConnectionDetailsFactory.DexDockerComposeConnectionDetails details() {
+        return new DexDockerComposeConnectionDetailsFactory.DexDockerComposeConnectionDetails(
+                service("dexidp/dex:v2.45.0", Map.of("wf.garnier.dex.issuer-uri", container.getIssuerUri()))
+        );
+    }
+
+    private static RunningService service(String image, Map<String, String> labels) {
+        return service(image, labels, Map.of(5556, container.getMappedPort(5556), 5557, container.getMappedPort(5557)));
+    }
+
+    private static RunningService service(String image, Map<String, String> labels, Map<Integer, Integer> ports) {
+        var connectionPorts = stub(portsType(), (method, args) -> switch (method.getName()) {
+            case "get" -> {
+                var port = ports.get((Integer) args[0]);
+                if (port == null) {
+                    throw new IllegalStateException("No host port for container port " + args[0]);
+                }
+                yield port;
+            }
+            case "getAll" -> List.copyOf(ports.values());
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+        return stub(RunningService.class, (method, args) -> switch (method.getName()) {
+            case "name" -> "dex";
+            case "image" -> ImageReference.of(image);
+            case "host" -> container.getHost();
+            case "ports" -> connectionPorts;
+            case "env" -> Map.of();
+            case "labels" -> labels;
+            default -> throw new UnsupportedOperationException(method.getName());
+        });
+    }
+
+    private static Class<?> portsType() {
+        try {
+            return RunningService.class.getMethod("ports").getReturnType();
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, BiFunction<Method, Object[], Object> answer) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> switch (method.getName()) {
+            case "toString" -> type.getSimpleName() + " stub";
+            case "hashCode" -> System.identityHashCode(proxy);
+            case "equals" -> proxy == args[0];
+            default -> answer.apply(method, args);
+        });
+    }
+
+    /**
+     * The constructor is not public, it is called by Spring Boot's Docker Compose support.
+     */
+    private static DockerComposeConnectionSource source(RunningService service) {
+        try {
+            var constructor = DockerComposeConnectionSource.class.getDeclaredConstructors()[0];
+            constructor.setAccessible(true);
+            var args = Arrays.stream(constructor.getParameterTypes())
+                    .map(type -> type.isInstance(service) ? service : new StandardEnvironment())
+                    .toArray();
+            return (DockerComposeConnectionSource) constructor.newInstance(args);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Could not create DockerComposeConnectionSource", e);
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.SpringProxy;
+import org.springframework.aot.generate.ClassNameGenerator;
+import org.springframework.aot.generate.DefaultGenerationContext;
+import org.springframework.aot.generate.GeneratedFiles;
+import org.springframework.aot.generate.InMemoryGeneratedFiles;
+import org.springframework.aot.hint.MemberCategory;
+import org.springframework.aot.hint.RuntimeHints;
+import org.springframework.aot.hint.TypeReference;
+import org.springframework.aot.hint.predicate.RuntimeHintsPredicates;
+import org.springframework.boot.autoconfigure.AutoConfigurations;
+import org.springframework.boot.test.context.runner.WebApplicationContextRunner;
+import org.springframework.context.aot.ApplicationContextAotGenerator;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.support.GenericApplicationContext;
+import org.springframework.javapoet.ClassName;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Runs AOT processing on an application using the auto-configuration, and checks the runtime hints it
+ * contributes, the way they would be written for a native image.
+ *
+ * @author Daniel Garnier-Moiroux
+ */
+class DexRuntimeHintsTest {
+
+    private final InMemoryGeneratedFiles generatedFiles = new InMemoryGeneratedFiles();
+
+    private RuntimeHints hints;
+
+    @BeforeEach
+    void processAheadOfTime() {
+        new WebApplicationContextRunner()
+                .withConfiguration(AutoConfigurations.of(
+                        DexContainerReactiveAutoConfiguration.class,
+                        DexContainerAutoConfiguration.class
+                ))
+                .withUserConfiguration(DexConnectionDetailsConfiguration.class)
+                .prepare(context -> {
+                    var generationContext = new DefaultGenerationContext(
+                            new ClassNameGenerator(ClassName.get(DexRuntimeHintsTest.class)),
+                            generatedFiles
+                    );
+                    new ApplicationContextAotGenerator().processAheadOfTime(
+                            (GenericApplicationContext) context.getSourceApplicationContext(),
+                            generationContext
+                    );
+                    generationContext.writeGeneratedContent();
+                    hints = generationContext.getRuntimeHints();
+                });
+    }
+
+    @Test
+    void generatesBeanDefinitions() {
+        assertThat(generatedFiles.getGeneratedFiles(GeneratedFiles.Kind.SOURCE).keySet())
+                .anySatisfy(path -> assertThat(path).endsWith("DexContainerAutoConfiguration__BeanDefinitions.java"));
+    }
+
+    @Test
+    void connectionDetailsFactories() {
+        assertThat(RuntimeHintsPredicates.reflection()
+                .onType(DexConnectionDetailsFactory.class)
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)).accepts(hints);
+        assertThat(RuntimeHintsPredicates.reflection()
+                .onType(TypeReference.of(DexDockerComposeConnectionDetailsFactory.class.getName()))
+                .withMemberCategory(MemberCategory.INVOKE_DECLARED_CONSTRUCTORS)).accepts(hints);
+    }
+
+    @Test
+    void connectionDetailsProxy() {
+        assertThat(RuntimeHintsPredicates.reflection().onType(DexConnectionDetails.class)).accepts(hints);
+        assertThat(hints.proxies().jdkProxyHints())
+                .anySatisfy(proxy -> assertThat(proxy.getProxiedInterfaces())
+                        .contains(TypeReference.of(DexConnectionDetails.class), TypeReference.of(SpringProxy.class)));
+    }
+
+    @Test
+    void grpcClasses() throws ClassNotFoundException {
+        for (var name : new String[]{"DexGrpc", "DexGrpc$DexBlockingStub", "DexGrpcApi", "DexGrpcApi$CreateClientReq",
+                "DexGrpcApi$CreateClientReq$Builder", "DexGrpcApi$Password$Builder"}) {
+            var type = Class.forName(DexRuntimeHints.GRPC_PACKAGE + "." + name);
+            assertThat(RuntimeHintsPredicates.reflection()
+                    .onType(type)
+                    .withMemberCategory(MemberCategory.INVOKE_PUBLIC_METHODS)).accepts(hints);
+        }
+    }
+
+    @Test
+    void grpcServiceLoaderResources() {
+        assertThat(RuntimeHintsPredicates.resource()
+                .forResource("META-INF/services/io.grpc.ManagedChannelProvider")).accepts(hints);
+    }
+
+    @Test
+    void virtualThreads() {
+        assertThat(hints.reflection().getTypeHint(Executors.class)).isNotNull()
+                .satisfies(hint -> assertThat(hint.methods())
+                        .anySatisfy(method -> assertThat(method.getName()).isEqualTo("newVirtualThreadPerTaskExecutor")));
+    }
+
+    @Configuration(proxyBeanMethods = false)
+    static class DexConnectionDetailsConfiguration {
+
+        @Bean
+        StubDexConnectionDetails dexConnectionDetails() {
+            return new StubDexConnectionDetails();
+        }
+    }
+}
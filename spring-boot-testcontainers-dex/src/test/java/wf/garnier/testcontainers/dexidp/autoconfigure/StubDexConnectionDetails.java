@@ -0,0 +1,107 @@
+package wf.garnier.testcontainers.dexidp.autoconfigure;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.jspecify.annotations.Nullable;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.DexTokens;
+
+/**
+ * {@link DexConnectionDetails} that do not need a running Dex, recording calls to register and
+ * unregister the client.
+ *
+ * @author Daniel Garnier-Moiroux
+ */
+public class StubDexConnectionDetails implements DexConnectionDetails {
+
+    public static final String ISSUER_URI = "http://dex.example.com/dex";
+
+    public static final String ACCESS_TOKEN = "stub-access-token";
+
+    volatile String jwkSet = "{\"keys\":[]}";
+
+    volatile RuntimeException registrationFailure;
+
+    volatile RuntimeException metadataFailure;
+
+    final List<Integer> registeredPorts = new ArrayList<>();
+
+    int unregistrations = 0;
+
+    int releases = 0;
+
+    @Override
+    public String getIssuerUri() {
+        return ISSUER_URI;
+    }
+
+    @Override
+    public String getAuthorizationUri() {
+        return ISSUER_URI + "/auth";
+    }
+
+    @Override
+    public String getTokenUri() {
+        return ISSUER_URI + "/token";
+    }
+
+    @Override
+    @Nullable
+    public String getUserInfoUri() {
+        return ISSUER_URI + "/userinfo";
+    }
+
+    @Override
+    public String getJwkSetUri() {
+        return ISSUER_URI + "/keys";
+    }
+
+    @Override
+    public String getJwkSet() {
+        return jwkSet;
+    }
+
+    @Override
+    public DexTokens.TokenResponse getToken(DexContainer.User user, String... scopes) {
+        return new DexTokens.TokenResponse(ACCESS_TOKEN, "bearer", null, null, Instant.now().plusSeconds(3600));
+    }
+
+    @Override
+    public Map<String, Object> getProviderConfigurationMetadata() {
+        if (metadataFailure != null) {
+            throw metadataFailure;
+        }
+        return Map.of();
+    }
+
+    @Override
+    public String getClientId() {
+        return "stub-client";
+    }
+
+    @Override
+    public String getClientSecret() {
+        return "stub-secret";
+    }
+
+    @Override
+    public synchronized void registerClient(int port) {
+        if (registrationFailure != null) {
+            throw registrationFailure;
+        }
+        registeredPorts.add(port);
+    }
+
+    @Override
+    public synchronized void unregisterClient() {
+        unregistrations++;
+    }
+
+    @Override
+    public synchronized void releaseClient() {
+        releases++;
+    }
+}
@@ -0,0 +1,37 @@
+package wf.garnier.testcontainers.dexidp.test;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockServletContext;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.context.support.GenericWebApplicationContext;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.autoconfigure.DexConnectionDetails;
+import wf.garnier.testcontainers.dexidp.autoconfigure.StubDexConnectionDetails;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class DexRequestPostProcessorsTest {
+
+    @Test
+    void dexToken() {
+        var servletContext = new MockServletContext();
+        var applicationContext = new GenericWebApplicationContext(servletContext);
+        applicationContext.registerBean(DexConnectionDetails.class, StubDexConnectionDetails::new);
+        applicationContext.refresh();
+        servletContext.setAttribute(WebApplicationContext.ROOT_WEB_APPLICATION_CONTEXT_ATTRIBUTE, applicationContext);
+
+        try (applicationContext) {
+            var request = DexRequestPostProcessors
+                    .dexToken(new DexContainer.User("alice", "alice@example.com", "password"))
+                    .postProcessRequest(new MockHttpServletRequest(servletContext));
+
+            assertThat(request.getHeader(HttpHeaders.AUTHORIZATION))
+                    .isEqualTo("Bearer " + StubDexConnectionDetails.ACCESS_TOKEN);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package wf.garnier.testcontainers.dexidp.test;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerResponse;
+import wf.garnier.testcontainers.dexidp.DexContainer;
+import wf.garnier.testcontainers.dexidp.autoconfigure.StubDexConnectionDetails;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class DexWebTestClientConfigurersTest {
+
+    @Test
+    void dexToken() {
+        var webTestClient = WebTestClient
+                .bindToRouterFunction(RouterFunctions.route()
+                        .GET("/", request -> ServerResponse.ok()
+                                .bodyValue(request.headers().firstHeader(HttpHeaders.AUTHORIZATION)))
+                        .build())
+                .build();
+
+        webTestClient
+                .mutateWith(DexWebTestClientConfigurers.dexToken(new StubDexConnectionDetails(),
+                        new DexContainer.User("alice", "alice@example.com", "password")))
+                .get().uri("/")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(String.class).isEqualTo("Bearer " + StubDexConnectionDetails.ACCESS_TOKEN);
+    }
+}
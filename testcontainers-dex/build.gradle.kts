@@ -18,16 +18,19 @@ repositories {
 dependencies {
     api("org.testcontainers:testcontainers:2.0.3")
     implementation("jakarta.validation:jakarta.validation-api:3.1.1")
+    api("io.grpc:grpc-api:${grpcVersion}")
     implementation("io.grpc:grpc-netty-shaded:${grpcVersion}")
     implementation("io.grpc:grpc-protobuf:${grpcVersion}")
     implementation("io.grpc:grpc-services:${grpcVersion}")
     implementation("io.grpc:grpc-stub:${grpcVersion}")
     compileOnly("org.apache.tomcat:annotations-api:6.0.53")
+    compileOnly("io.micrometer:micrometer-core:1.16.3")
 
     testImplementation(platform("org.junit:junit-bom:6.0.3"))
     testRuntimeOnly("org.junit.platform:junit-platform-launcher")
     testImplementation("org.junit.jupiter:junit-jupiter")
     testImplementation("org.assertj:assertj-core:3.27.7")
+    testImplementation("io.micrometer:micrometer-core:1.16.3")
     testImplementation("tools.jackson.core:jackson-databind:3.1.0")
     testImplementation("org.apache.httpcomponents.core5:httpcore5:5.4.1")
     testImplementation("ch.qos.logback:logback-core:1.5.32")
@@ -2,6 +2,7 @@ package wf.garnier.testcontainers.dexidp;
 
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -14,16 +15,14 @@ import java.util.UUID;
 import javax.annotation.Nullable;
 
 import com.github.dockerjava.api.command.InspectContainerResponse;
-import com.google.protobuf.ByteString;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
 import org.testcontainers.containers.GenericContainer;
 import org.testcontainers.containers.wait.strategy.Wait;
+import org.testcontainers.images.builder.Transferable;
 import org.testcontainers.utility.DockerImageName;
 import wf.garnier.testcontainers.dexidp.grpc.DexGrpc;
-import wf.garnier.testcontainers.dexidp.grpc.DexGrpcApi;
 
 
 /**
@@ -55,6 +54,20 @@ public class DexContainer extends GenericContainer<DexContainer> {
 
     private static final String DEX_CONFIG_FILE = "/var/dex/dex.yml";
 
+    private static final String DEX_STORAGE_FILE = "/etc/dex/dex.db";
+
+    private static final String DEX_PAUSE_FILE = "/var/dex/pause";
+
+    private static final String DEX_RESTORE_FILE = "/tmp/dex-restore.db";
+
+    private static final String DEX_SNAPSHOT_FILE = "/tmp/dex-snapshot.db";
+
+    /**
+     * Suffixes of the files SQLite keeps next to the storage file. A rollback journal or a write-ahead log
+     * left behind holds changes that are not in the storage file yet, and must be copied with it.
+     */
+    private static final List<String> DEX_STORAGE_JOURNAL_SUFFIXES = List.of("-journal", "-wal");
+
     private final Map<String, Client> clients = new LinkedHashMap<>();
 
     private final Map<String, User> users = new LinkedHashMap<>();
@@ -65,6 +78,38 @@ public class DexContainer extends GenericContainer<DexContainer> {
 
     private ManagedChannel channel;
 
+    private GrpcChannelFactory grpcChannelFactory = GrpcChannelFactory.shared();
+
+    private final GrpcMetrics grpcMetrics = new GrpcMetrics();
+
+    private final TokenCache tokenCache = new TokenCache();
+
+    private DexMetadata metadata;
+
+    private DexTokens tokens;
+
+    private DexJwtVerifier jwtVerifier;
+
+    @Nullable
+    private Duration idTokensExpiry;
+
+    @Nullable
+    private Duration signingKeysExpiry;
+
+    @Nullable
+    private Duration authRequestsExpiry;
+
+    @Nullable
+    private Duration refreshTokensValidIfNotUsedFor;
+
+    @Nullable
+    private Duration refreshTokensAbsoluteLifetime;
+
+    @Nullable
+    private Duration refreshTokensReuseInterval;
+
+    private boolean refreshTokensRotation = true;
+
     /**
      * Constructs a GenericContainer running Dex.
      *
@@ -76,6 +121,8 @@ public class DexContainer extends GenericContainer<DexContainer> {
         super(dockerImageName);
         this.addExposedPort(DEX_HTTP_PORT);
         this.addExposedPort(DEX_GRPC_PORT);
+        // Dex versions that gate the client_credentials grant behind a feature flag
+        this.withEnv("DEX_CLIENT_CREDENTIAL_GRANT_ENABLED_BY_DEFAULT", "true");
         this.waitingFor(
                 Wait.forHttp("/dex/.well-known/openid-configuration")
                         .forPort(DEX_HTTP_PORT)
@@ -87,10 +134,17 @@ public class DexContainer extends GenericContainer<DexContainer> {
                 "-c",
                 // We wait for the config file to be present before starting the Dex process itself.
                 // The config file must be written AFTER the container is started, see #containerIsStarting
+                // When Dex exits while the pause file is present, we wait for the file to be removed and
+                // start Dex again, see #restore
                 """
                 while [[ ! -f %s ]]; do sleep 1; echo "Waiting for configuration file..."; done;
-                dex serve %s
-                """.formatted(DEX_CONFIG_FILE, DEX_CONFIG_FILE)
+                while true; do
+                  dex serve %s;
+                  status=$?;
+                  [[ -f %s ]] || exit $status;
+                  while [[ -f %s ]]; do sleep 0.1; done;
+                done
+                """.formatted(DEX_CONFIG_FILE, DEX_CONFIG_FILE, DEX_PAUSE_FILE, DEX_PAUSE_FILE)
         );
         //@formatter:on
     }
@@ -123,18 +177,20 @@ public class DexContainer extends GenericContainer<DexContainer> {
     }
 
     /**
-     * When the container is started, and the Dex Process is running, open a private gRPC channel to register
-     * clients and users.
+     * When the container is started, and the Dex Process is running, register clients and users.
+     * The gRPC channel used for registration is opened on first use, see {@link #grpcStub()}.
      *
      * @param containerInfo ignored
      */
     @Override
     protected void containerIsStarted(InspectContainerResponse containerInfo) {
         isStarted = true;
-        channel = ManagedChannelBuilder.forAddress(getHost(), getMappedPort(DEX_GRPC_PORT))
-                .usePlaintext()
-                .build();
-        grpcStub = DexGrpc.newBlockingStub(channel);
+        metadata = new DexMetadata(getIssuerUri());
+        metadata.openidConfiguration();
+        metadata.jwks();
+        tokenCache.invalidateAll();
+        tokens = new DexTokens(metadata::openidConfiguration, tokenCache);
+        jwtVerifier = new DexJwtVerifier(getIssuerUri(), metadata);
 
         if (clients.isEmpty()) {
             var defaultClient = new Client("example-app", "ZXhhbXBsZS1hcHAtc2VjcmV0", "http://127.0.0.1:5555/callback");
@@ -156,7 +212,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
      */
     @Override
     protected void containerIsStopping(InspectContainerResponse containerInfo) {
-        if (!channel.isShutdown()) {
+        if (channel != null && !channel.isShutdown()) {
             channel.shutdown();
         }
         grpcStub = null;
@@ -164,6 +220,143 @@ public class DexContainer extends GenericContainer<DexContainer> {
     }
 
 
+    /**
+     * Capture the current state of the running Dex IDP: the SQLite storage, and the clients and users
+     * registered with this container. The snapshot can later be passed to {@link #restore(Snapshot)} to
+     * roll back to this state in constant time, regardless of how many users or clients were registered.
+     * <p>
+     * The Dex process is stopped while the storage is copied, so that the copy is consistent, and started
+     * again before this method returns. Do not mutate the container concurrently.
+     * <p>
+     * The container MUST be started before calling this method.
+     *
+     * @return the snapshot
+     * @throws IllegalStateException if the container is not started
+     * @see #restore(Snapshot)
+     */
+    public Snapshot snapshot() {
+        if (!this.isStarted) {
+            throw new IllegalStateException("Snapshots can only be taken after the container has started.");
+        }
+        //@formatter:off
+        restartDex("""
+                rm -f %1$s %1$s-journal %1$s-wal && cp %2$s %1$s &&
+                { [ ! -f %2$s-journal ] || cp %2$s-journal %1$s-journal; } &&
+                { [ ! -f %2$s-wal ] || cp %2$s-wal %1$s-wal; }
+                """.formatted(DEX_SNAPSHOT_FILE, DEX_STORAGE_FILE),
+                "take snapshot");
+        //@formatter:on
+        var storage = new LinkedHashMap<String, byte[]>();
+        storage.put("", copyFileFromContainer(DEX_SNAPSHOT_FILE, InputStream::readAllBytes));
+        for (var suffix : DEX_STORAGE_JOURNAL_SUFFIXES) {
+            if (fileExistsInContainer(DEX_SNAPSHOT_FILE + suffix)) {
+                storage.put(suffix, copyFileFromContainer(DEX_SNAPSHOT_FILE + suffix, InputStream::readAllBytes));
+            }
+        }
+        return new Snapshot(storage, clients, users);
+    }
+
+    /**
+     * Roll back the running Dex IDP to the state captured in a {@link Snapshot}. The Dex process is stopped,
+     * the SQLite storage is replaced, and Dex is started again. The method returns once Dex is ready to serve
+     * requests. The clients and users of this container are reset to those of the snapshot.
+     * <p>
+     * The container MUST be started before calling this method.
+     *
+     * @param snapshot the snapshot to restore, obtained from {@link #snapshot()}
+     * @throws IllegalStateException if the container is not started
+     */
+    public void restore(Snapshot snapshot) {
+        if (!this.isStarted) {
+            throw new IllegalStateException("Snapshots can only be restored after the container has started.");
+        }
+        // Journals left over from the current storage must not be replayed on the restored one, remove them
+        var restoreCommand = new StringBuilder("rm -f %1$s-journal %1$s-wal %1$s-shm".formatted(DEX_STORAGE_FILE));
+        for (var file : snapshot.storage.entrySet()) {
+            copyFileToContainer(Transferable.of(file.getValue(), 0644), DEX_RESTORE_FILE + file.getKey());
+            restoreCommand.append(" && mv %1$s%3$s %2$s%3$s".formatted(DEX_RESTORE_FILE, DEX_STORAGE_FILE, file.getKey()));
+        }
+        clients.clear();
+        clients.putAll(snapshot.clients);
+        users.clear();
+        users.putAll(snapshot.users);
+        restartDex(restoreCommand.toString(), "restore snapshot");
+        tokenCache.invalidateAll();
+        // Signing keys are part of the storage
+        metadata.invalidateJwks();
+    }
+
+    /**
+     * Stop the Dex process, run {@code whileStopped} in the container, and start Dex again. The container
+     * command waits for the pause file to be removed before restarting Dex. Returns once Dex is ready to
+     * serve requests.
+     *
+     * @param whileStopped the shell commands to run while Dex is stopped
+     * @param action       the action, for error messages
+     */
+    private void restartDex(String whileStopped, String action) {
+        //@formatter:off
+        var script = """
+                touch %1$s;
+                pkill -x dex;
+                while pgrep -x dex > /dev/null; do sleep 0.1; done;
+                %2$s
+                status=$?;
+                rm %1$s;
+                exit $status
+                """.formatted(DEX_PAUSE_FILE, whileStopped.strip());
+        //@formatter:on
+        try {
+            var result = this.execInContainer("/bin/sh", "-c", script);
+            if (result.getExitCode() != 0) {
+                throw new RuntimeException("Could not %s in container. Result details: %s".formatted(action, result));
+            }
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException("Could not %s in container".formatted(action), e);
+        }
+        waitUntilContainerStarted();
+        if (channel != null) {
+            // Dex was unreachable while restarting, reconnect immediately rather than waiting for backoff.
+            channel.resetConnectBackoff();
+        }
+    }
+
+    private boolean fileExistsInContainer(String path) {
+        try {
+            return this.execInContainer("test", "-f", path).getExitCode() == 0;
+        } catch (IOException | InterruptedException e) {
+            throw new RuntimeException("Could not check for %s in container".formatted(path), e);
+        }
+    }
+
+    /**
+     * Get the metrics of the calls made to the Dex gRPC API to register and unregister clients and users.
+     * Use this to tell whether slow tests are caused by Dex itself. To export them to Micrometer, see
+     * {@link GrpcMetricsBinder}.
+     *
+     * @return the gRPC metrics
+     */
+    public GrpcMetrics getGrpcMetrics() {
+        return grpcMetrics;
+    }
+
+    /**
+     * Obtain the gRPC stub used to register clients and users. The underlying channel is only
+     * opened on the first call, so that containers that never need to mutate Dex do not pay
+     * for the channel and its event loop.
+     * <p>
+     * The container MUST be started before calling this method.
+     *
+     * @return the blocking stub
+     */
+    private DexGrpc.DexBlockingStub grpcStub() {
+        if (grpcStub == null) {
+            channel = grpcChannelFactory.createChannel(getHost(), getMappedPort(DEX_GRPC_PORT));
+            grpcStub = DexGrpc.newBlockingStub(channel).withInterceptors(grpcMetrics.interceptor());
+        }
+        return grpcStub;
+    }
+
     /**
      * Return the OpenID Connect Provider's {@code issuer identifier}. It will match whatever is in
      * the OpenID Configuration Document.
@@ -182,6 +375,70 @@ public class DexContainer extends GenericContainer<DexContainer> {
     }
 
 
+    /**
+     * Return the OpenID Provider Metadata of the running Dex IDP, without going through the OpenID
+     * Discovery mechanism. It is fetched once, when the container starts, and cached.
+     * <p>
+     * The container MUST be started before calling this method.
+     *
+     * @return the OpenID configuration
+     * @throws IllegalStateException if the container is not started
+     * @see <a href="https://openid.net/specs/openid-connect-discovery-1_0.html">OpenID Connect Discovery</a>
+     */
+    public OpenidConfiguration getOpenidConfiguration() {
+        if (!this.isStarted) {
+            throw new IllegalStateException("OpenID configuration can only be obtained after the container has started.");
+        }
+        return metadata.openidConfiguration();
+    }
+
+    /**
+     * Return the JSON Web Key Set used by the running Dex IDP to sign tokens. It is fetched when the
+     * container starts, and cached until Dex may rotate its signing keys.
+     * <p>
+     * The container MUST be started before calling this method.
+     *
+     * @return the JWKS
+     * @throws IllegalStateException if the container is not started
+     */
+    public Jwks getJwks() {
+        if (!this.isStarted) {
+            throw new IllegalStateException("JWKS can only be obtained after the container has started.");
+        }
+        return metadata.jwks();
+    }
+
+    /**
+     * Obtain tokens from the running Dex IDP, programmatically, without going through a browser.
+     * <p>
+     * The container MUST be started before calling this method.
+     *
+     * @return the token API, bound to this container
+     * @throws IllegalStateException if the container is not started
+     */
+    public DexTokens getTokens() {
+        if (!this.isStarted) {
+            throw new IllegalStateException("Tokens can only be obtained after the container has started.");
+        }
+        return tokens;
+    }
+
+    /**
+     * Return a verifier for JWTs issued by the running Dex IDP. It checks signatures against the
+     * cached JWKS, without any network call, so it can be used to assert on a large number of tokens.
+     * <p>
+     * The container MUST be started before calling this method.
+     *
+     * @return the JWT verifier, bound to this container
+     * @throws IllegalStateException if the container is not started
+     */
+    public DexJwtVerifier getJwtVerifier() {
+        if (!this.isStarted) {
+            throw new IllegalStateException("JWT verifier can only be obtained after the container has started.");
+        }
+        return jwtVerifier;
+    }
+
     /**
      * Template the issuer URI from host and port.
      * <p>
@@ -217,8 +474,185 @@ public class DexContainer extends GenericContainer<DexContainer> {
                 enablePasswordDB: true
                 oauth2:
                     skipApprovalScreen: true
+                    passwordConnector: local
+                    grantTypes:
+                      - authorization_code
+                      - refresh_token
+                      - password
+                      - client_credentials
+                      - urn:ietf:params:oauth:grant-type:device_code
+                      - urn:ietf:params:oauth:grant-type:token-exchange
                 """.formatted(templateIssuerUri(), DEX_HTTP_PORT, DEX_GRPC_PORT);
-        return baseConfiguration;
+        return baseConfiguration + expiryConfiguration();
+    }
+
+    /**
+     * The {@code expiry} block of the Dex configuration, only including the lifetimes that were
+     * configured. Dex uses its defaults for the others.
+     *
+     * @return the {@code expiry} block, or an empty string
+     */
+    private String expiryConfiguration() {
+        var refreshTokens = new StringBuilder();
+        if (!refreshTokensRotation) {
+            refreshTokens.append("    disableRotation: true\n");
+        }
+        if (refreshTokensReuseInterval != null) {
+            refreshTokens.append("    reuseInterval: %s\n".formatted(goDuration(refreshTokensReuseInterval)));
+        }
+        if (refreshTokensValidIfNotUsedFor != null) {
+            refreshTokens.append("    validIfNotUsedFor: %s\n".formatted(goDuration(refreshTokensValidIfNotUsedFor)));
+        }
+        if (refreshTokensAbsoluteLifetime != null) {
+            refreshTokens.append("    absoluteLifetime: %s\n".formatted(goDuration(refreshTokensAbsoluteLifetime)));
+        }
+
+        var expiry = new StringBuilder();
+        if (idTokensExpiry != null) {
+            expiry.append("  idTokens: %s\n".formatted(goDuration(idTokensExpiry)));
+        }
+        if (signingKeysExpiry != null) {
+            expiry.append("  signingKeys: %s\n".formatted(goDuration(signingKeysExpiry)));
+        }
+        if (authRequestsExpiry != null) {
+            expiry.append("  authRequests: %s\n".formatted(goDuration(authRequestsExpiry)));
+        }
+        if (!refreshTokens.isEmpty()) {
+            expiry.append("  refreshTokens:\n").append(refreshTokens);
+        }
+        return expiry.isEmpty() ? "" : "expiry:\n" + expiry;
+    }
+
+    /**
+     * Format a duration the way Dex parses it, e.g. {@code 90s} or {@code 1500ms}. The duration must be
+     * a whole number of milliseconds, see {@link #requirePositive(Duration, String)}.
+     */
+    static String goDuration(Duration duration) {
+        var millis = duration.toMillis();
+        return millis % 1000 == 0 ? (millis / 1000) + "s" : millis + "ms";
+    }
+
+    /**
+     * Expiries are written to the configuration in milliseconds, reject durations that would be
+     * truncated, such as half a millisecond, which would be written as {@code 0ms}.
+     */
+    private static Duration requirePositive(Duration duration, String name) {
+        if (duration == null || duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException(name + " must be a positive duration");
+        }
+        if (duration.getNano() % 1_000_000 != 0) {
+            throw new IllegalArgumentException(name + " must be a whole number of milliseconds, got " + duration);
+        }
+        return duration;
+    }
+
+    /**
+     * Set the lifetime of ID tokens, and of access tokens, which Dex issues with the same lifetime.
+     * Dex defaults to 24 hours. Short lifetimes are useful to exercise token refresh in tests.
+     * <p>
+     * This must be called before the container is started.
+     *
+     * @param idTokensExpiry the lifetime of tokens, positive, in whole milliseconds
+     * @return this instance for further configuration
+     * @see <a href="https://dexidp.io/docs/configuration/tokens/#expiration-and-rotation-settings">Dex - Expiration and rotation settings</a>
+     */
+    public DexContainer withIdTokensExpiry(Duration idTokensExpiry) {
+        this.idTokensExpiry = requirePositive(idTokensExpiry, "idTokensExpiry");
+        return self();
+    }
+
+    /**
+     * Set how often Dex rotates its signing keys. Dex defaults to 6 hours. Previous keys are still
+     * published in the JWKS until the tokens they signed have expired. Short rotation periods are useful
+     * to exercise key rollover in relying parties.
+     * <p>
+     * This must be called before the container is started.
+     *
+     * @param signingKeysExpiry the rotation period, positive, in whole milliseconds
+     * @return this instance for further configuration
+     * @see <a href="https://dexidp.io/docs/configuration/tokens/#expiration-and-rotation-settings">Dex - Expiration and rotation settings</a>
+     */
+    public DexContainer withSigningKeysExpiry(Duration signingKeysExpiry) {
+        this.signingKeysExpiry = requirePositive(signingKeysExpiry, "signingKeysExpiry");
+        return self();
+    }
+
+    /**
+     * Set how long users have to complete a login, once the authorization request was made. Dex
+     * defaults to 24 hours.
+     * <p>
+     * This must be called before the container is started.
+     *
+     * @param authRequestsExpiry the lifetime of authorization requests, positive, in whole milliseconds
+     * @return this instance for further configuration
+     * @see <a href="https://dexidp.io/docs/configuration/tokens/#expiration-and-rotation-settings">Dex - Expiration and rotation settings</a>
+     */
+    public DexContainer withAuthRequestsExpiry(Duration authRequestsExpiry) {
+        this.authRequestsExpiry = requirePositive(authRequestsExpiry, "authRequestsExpiry");
+        return self();
+    }
+
+    /**
+     * Set the lifetime of refresh tokens. Dex defaults to refresh tokens valid for 90 days when not
+     * used, and at most 165 days.
+     * <p>
+     * This must be called before the container is started.
+     *
+     * @param validIfNotUsedFor how long a refresh token stays valid when it is not used, positive, in whole milliseconds
+     * @param absoluteLifetime  how long a refresh token stays valid after the user logged in, positive, in whole milliseconds
+     * @return this instance for further configuration
+     * @see <a href="https://dexidp.io/docs/configuration/tokens/#expiration-and-rotation-settings">Dex - Expiration and rotation settings</a>
+     */
+    public DexContainer withRefreshTokensExpiry(Duration validIfNotUsedFor, Duration absoluteLifetime) {
+        this.refreshTokensValidIfNotUsedFor = requirePositive(validIfNotUsedFor, "validIfNotUsedFor");
+        this.refreshTokensAbsoluteLifetime = requirePositive(absoluteLifetime, "absoluteLifetime");
+        return self();
+    }
+
+    /**
+     * Set how long a rotated refresh token can still be used, to tolerate clients racing to refresh
+     * the same session. Dex defaults to 3 seconds.
+     * <p>
+     * This must be called before the container is started.
+     *
+     * @param reuseInterval the grace period for rotated refresh tokens, positive, in whole milliseconds
+     * @return this instance for further configuration
+     * @see <a href="https://dexidp.io/docs/configuration/tokens/#expiration-and-rotation-settings">Dex - Expiration and rotation settings</a>
+     */
+    public DexContainer withRefreshTokensReuseInterval(Duration reuseInterval) {
+        this.refreshTokensReuseInterval = requirePositive(reuseInterval, "reuseInterval");
+        return self();
+    }
+
+    /**
+     * Disable refresh token rotation: Dex keeps issuing the same refresh token for a session.
+     * <p>
+     * This must be called before the container is started.
+     *
+     * @return this instance for further configuration
+     * @see <a href="https://dexidp.io/docs/configuration/tokens/#expiration-and-rotation-settings">Dex - Expiration and rotation settings</a>
+     */
+    public DexContainer withoutRefreshTokensRotation() {
+        this.refreshTokensRotation = false;
+        return self();
+    }
+
+    /**
+     * Use a custom {@link GrpcChannelFactory} to create the channel to the Dex gRPC API, for example
+     * to tune keepalive or executors. Defaults to {@link GrpcChannelFactory#shared()}.
+     * <p>
+     * This must be called before the first client or user is registered with the running container.
+     *
+     * @param grpcChannelFactory the channel factory, not null
+     * @return this instance for further configuration
+     * @see SharedGrpcChannelFactory
+     */
+    public DexContainer withGrpcChannelFactory(GrpcChannelFactory grpcChannelFactory) {
+        if (grpcChannelFactory == null) {
+            throw new IllegalArgumentException("grpcChannelFactory must not be null");
+        }
+        this.grpcChannelFactory = grpcChannelFactory;
+        return self();
     }
 
     /**
@@ -239,6 +673,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
             unregisterClient(client.clientId());
             registerClient(client);
         }
+        tokenCache.invalidateClient(client.clientId());
         clients.put(client.clientId(), client);
         return self();
     }
@@ -286,6 +721,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
         if (isStarted) {
             unregisterClient(clientId);
         }
+        tokenCache.invalidateClient(clientId);
         return clients.remove(clientId);
     }
 
@@ -295,14 +731,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
      * @param client the client to register
      */
     private void registerClient(Client client) {
-        var grpcClient = DexGrpcApi.Client.newBuilder()
-                .setId(client.clientId())
-                .setSecret(client.clientSecret())
-                .addRedirectUris(client.redirectUri());
-        var request = DexGrpcApi.CreateClientReq.newBuilder()
-                .setClient(grpcClient)
-                .build();
-        grpcStub.createClient(request);
+        grpcStub().createClient(DexServer.createClientRequest(client));
     }
 
     /**
@@ -311,10 +740,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
      * @param clientId the {@code client_id} of the client to unregister
      */
     private void unregisterClient(String clientId) {
-        var request = DexGrpcApi.DeleteClientReq.newBuilder()
-                .setId(clientId)
-                .build();
-        grpcStub.deleteClient(request);
+        grpcStub().deleteClient(DexServer.deleteClientRequest(clientId));
     }
 
     /**
@@ -333,6 +759,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
             unregisterUser(user.email());
             registerUser(user);
         }
+        tokenCache.invalidateUser(user.email());
         users.put(user.email(), user);
         return self();
     }
@@ -379,6 +806,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
         if (isStarted) {
             unregisterUser(email);
         }
+        tokenCache.invalidateUser(email);
         return users.remove(email);
     }
 
@@ -388,15 +816,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
      * @param user the user to register
      */
     private void registerUser(User user) {
-        var password = DexGrpcApi.Password.newBuilder()
-                .setEmail(user.email())
-                .setUserId(user.uuid())
-                .setHash(ByteString.copyFromUtf8(user.bcryptPassword()))
-                .setUsername(user.username());
-        var request = DexGrpcApi.CreatePasswordReq.newBuilder()
-                .setPassword(password)
-                .build();
-        grpcStub.createPassword(request);
+        grpcStub().createPassword(DexServer.createPasswordRequest(user));
     }
 
     /**
@@ -405,10 +825,7 @@ public class DexContainer extends GenericContainer<DexContainer> {
      * @param email the email of the user to unregister
      */
     private void unregisterUser(String email) {
-        var request = DexGrpcApi.DeletePasswordReq.newBuilder()
-                .setEmail(email)
-                .build();
-        grpcStub.deletePassword(request);
+        grpcStub().deletePassword(DexServer.deletePasswordRequest(email));
     }
 
     /**
@@ -543,5 +960,35 @@ public class DexContainer extends GenericContainer<DexContainer> {
         }
     }
 
+    /**
+     * A point-in-time copy of the state of a running {@link DexContainer}: the Dex storage, and the
+     * clients and users known to the container. Obtained through {@link DexContainer#snapshot()},
+     * and used with {@link DexContainer#restore(Snapshot)}.
+     *
+     * @author Daniel Garnier-Moiroux
+     */
+    public static final class Snapshot {
+        /**
+         * The storage file, and the SQLite journals next to it, by file name suffix.
+         */
+        private final Map<String, byte[]> storage;
+        private final Map<String, Client> clients;
+        private final Map<String, User> users;
+
+        private Snapshot(Map<String, byte[]> storage, Map<String, Client> clients, Map<String, User> users) {
+            this.storage = Collections.unmodifiableMap(storage);
+            this.clients = new LinkedHashMap<>(clients);
+            this.users = new LinkedHashMap<>(users);
+        }
+
+        /**
+         * Get the size of the captured Dex storage, including SQLite journals.
+         *
+         * @return the size, in bytes
+         */
+        public int storageSize() {
+            return storage.values().stream().mapToInt(file -> file.length).sum();
+        }
+    }
 
-}
\ No newline at end of file
+}
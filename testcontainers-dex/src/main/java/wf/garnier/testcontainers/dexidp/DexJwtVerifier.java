@@ -0,0 +1,219 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.RSAPublicKeySpec;
+import java.util.Base64;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Verifies JWTs issued by a running Dex IDP, locally: the {@code RS256} signature, the {@code iss},
+ * {@code aud} and {@code exp} claims. Public keys are resolved from the container's cached JWKS and
+ * kept in memory by header, so that verifying a token does not make any network call. The JWKS is
+ * only fetched again when a token references an unknown key.
+ * <p>
+ * Instances are thread-safe.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexContainer#getJwtVerifier()
+ */
+public final class DexJwtVerifier {
+
+    private static final long MIN_REFRESH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private static final ThreadLocal<Signature> signatures = ThreadLocal.withInitial(() -> {
+        try {
+            return Signature.getInstance("SHA256withRSA");
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("RS256 is not supported by this JVM", e);
+        }
+    });
+
+    private final String issuer;
+
+    private final DexMetadata metadata;
+
+    /**
+     * Public keys by raw JWT header, for the current JWKS. Tokens signed with the same key share the same
+     * header, so the header does not need to be parsed again.
+     */
+    private volatile KeysByHeader keysByHeader = new KeysByHeader(-1, new ConcurrentHashMap<>());
+
+    private volatile long lastRefresh = System.nanoTime() - MIN_REFRESH_INTERVAL_NANOS;
+
+    DexJwtVerifier(String issuer, DexMetadata metadata) {
+        this.issuer = issuer;
+        this.metadata = metadata;
+    }
+
+    /**
+     * Verify the signature, issuer and expiry of a JWT issued by Dex, and return its claims.
+     *
+     * @param jwt the encoded JWT
+     * @return the claims
+     * @throws JwtVerificationException if the token is not valid
+     */
+    public Map<String, Object> verify(String jwt) {
+        return verify(jwt, null);
+    }
+
+    /**
+     * Verify the signature, issuer, audience and expiry of a JWT issued by Dex, and return its claims.
+     *
+     * @param jwt      the encoded JWT
+     * @param audience the expected audience, usually a {@code client_id}
+     * @return the claims
+     * @throws JwtVerificationException if the token is not valid
+     */
+    public Map<String, Object> verify(String jwt, @Nullable String audience) {
+        var firstDot = jwt.indexOf('.');
+        var secondDot = firstDot < 0 ? -1 : jwt.indexOf('.', firstDot + 1);
+        if (firstDot < 0 || secondDot < 0 || jwt.indexOf('.', secondDot + 1) >= 0) {
+            throw new JwtVerificationException("Token is not a JWS compact serialization");
+        }
+
+        var key = keysByHeader().get(jwt.substring(0, firstDot));
+        if (key == null) {
+            key = resolveKey(jwt.substring(0, firstDot));
+        }
+        verifySignature(jwt, secondDot, key);
+
+        Map<String, Object> claims;
+        try {
+            var payload = Base64.getUrlDecoder().decode(jwt.substring(firstDot + 1, secondDot));
+            claims = Json.parseObject(new String(payload, StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new JwtVerificationException("Token payload is not valid JSON", e);
+        }
+
+        if (!issuer.equals(claims.get("iss"))) {
+            throw new JwtVerificationException("Invalid issuer: " + claims.get("iss"));
+        }
+        if (!(claims.get("exp") instanceof Number exp) || exp.longValue() * 1000 <= System.currentTimeMillis()) {
+            throw new JwtVerificationException("Token is expired");
+        }
+        if (audience != null && !hasAudience(claims.get("aud"), audience)) {
+            throw new JwtVerificationException("Invalid audience: " + claims.get("aud"));
+        }
+        return claims;
+    }
+
+    private static void verifySignature(String jwt, int secondDot, PublicKey key) {
+        var signature = signatures.get();
+        try {
+            signature.initVerify(key);
+            for (int i = 0; i < secondDot; i++) {
+                // JWS compact serializations are ASCII
+                signature.update((byte) jwt.charAt(i));
+            }
+            if (!signature.verify(Base64.getUrlDecoder().decode(jwt.substring(secondDot + 1)))) {
+                throw new JwtVerificationException("Invalid signature");
+            }
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            throw new JwtVerificationException("Invalid signature", e);
+        }
+    }
+
+    private static boolean hasAudience(Object aud, String audience) {
+        if (aud instanceof String singleAudience) {
+            return singleAudience.equals(audience);
+        }
+        return aud instanceof Collection<?> audiences && audiences.contains(audience);
+    }
+
+    private PublicKey resolveKey(String encodedHeader) {
+        Map<String, Object> header;
+        try {
+            header = Json.parseObject(new String(Base64.getUrlDecoder().decode(encodedHeader), StandardCharsets.UTF_8));
+        } catch (IllegalArgumentException e) {
+            throw new JwtVerificationException("Token header is not valid JSON", e);
+        }
+        if (!"RS256".equals(header.get("alg"))) {
+            throw new JwtVerificationException("Unsupported algorithm: " + header.get("alg"));
+        }
+        if (!(header.get("kid") instanceof String kid)) {
+            throw new JwtVerificationException("Token header has no kid");
+        }
+
+        var jwks = metadata.jwks();
+        var jwk = jwks.getKey(kid);
+        if (jwk == null && System.nanoTime() - lastRefresh >= MIN_REFRESH_INTERVAL_NANOS) {
+            // Unknown key, Dex may have rotated its keys
+            lastRefresh = System.nanoTime();
+            jwk = metadata.refreshJwks(jwks).getKey(kid);
+        }
+        if (jwk == null) {
+            throw new JwtVerificationException("Unknown signing key: " + kid);
+        }
+        var key = toPublicKey(jwk);
+        keysByHeader().put(encodedHeader, key);
+        return key;
+    }
+
+    /**
+     * The cached keys, dropped when the JWKS was fetched again or invalidated, for example after
+     * {@link DexContainer#restore(DexContainer.Snapshot)}, so that removed keys are not trusted anymore.
+     */
+    private ConcurrentMap<String, PublicKey> keysByHeader() {
+        var generation = metadata.jwksGeneration();
+        var current = keysByHeader;
+        if (current.jwksGeneration() != generation) {
+            current = new KeysByHeader(generation, new ConcurrentHashMap<>());
+            keysByHeader = current;
+        }
+        return current.keys();
+    }
+
+    private static PublicKey toPublicKey(Map<String, Object> jwk) {
+        if (!"RSA".equals(jwk.get("kty"))) {
+            throw new JwtVerificationException("Unsupported key type: " + jwk.get("kty"));
+        }
+        try {
+            var modulus = new BigInteger(1, Base64.getUrlDecoder().decode((String) jwk.get("n")));
+            var exponent = new BigInteger(1, Base64.getUrlDecoder().decode((String) jwk.get("e")));
+            return KeyFactory.getInstance("RSA").generatePublic(new RSAPublicKeySpec(modulus, exponent));
+        } catch (GeneralSecurityException | IllegalArgumentException | ClassCastException e) {
+            throw new JwtVerificationException("Invalid RSA key: " + jwk.get("kid"), e);
+        }
+    }
+
+    private record KeysByHeader(long jwksGeneration, ConcurrentMap<String, PublicKey> keys) {
+    }
+
+    /**
+     * Thrown when a JWT cannot be verified.
+     *
+     * @author Daniel Garnier-Moiroux
+     */
+    public static class JwtVerificationException extends RuntimeException {
+
+        /**
+         * Construct a new exception with the given message.
+         *
+         * @param message the message
+         */
+        public JwtVerificationException(String message) {
+            super(message);
+        }
+
+        /**
+         * Construct a new exception with the given message and cause.
+         *
+         * @param message the message
+         * @param cause   the cause
+         */
+        public JwtVerificationException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
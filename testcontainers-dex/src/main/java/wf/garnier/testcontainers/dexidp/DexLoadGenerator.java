@@ -0,0 +1,274 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.lang.reflect.InvocationTargetException;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drive concurrent {@code authorization_code} logins against a running Dex IDP, to measure how Dex
+ * behaves under login storms. Logins start at a fixed arrival rate, whether previous logins have
+ * completed or not, and each login runs on its own virtual thread. On JVMs without virtual threads,
+ * logins run on a pool of platform threads instead.
+ * <p>
+ * Users log in in turn, and must be registered with the container.
+ * <pre>{@code
+ * var report = new DexLoadGenerator(container, client, users)
+ *         .withArrivalRate(50)
+ *         .withDuration(Duration.ofSeconds(30))
+ *         .run();
+ * report.getLatency(DexLoadGenerator.Step.LOGIN).percentile(99);
+ * }</pre>
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexTokens#authorizationCode(DexContainer.Client, DexContainer.User, String...)
+ */
+public final class DexLoadGenerator {
+
+    private static final Duration DRAIN_TIMEOUT = Duration.ofMinutes(1);
+
+    private final DexContainer container;
+
+    private final DexContainer.Client client;
+
+    private final List<DexContainer.User> users;
+
+    private double arrivalRate = 10;
+
+    private Duration duration = Duration.ofSeconds(10);
+
+    private String[] scopes = new String[0];
+
+    /**
+     * Create a load generator, logging the users in with the given client.
+     *
+     * @param container the Dex container, which must be started before running the load
+     * @param client    the OAuth2 Client, which must be registered with the container
+     * @param users     the Users logging in, in turn
+     * @throws IllegalArgumentException if there are no users
+     */
+    public DexLoadGenerator(DexContainer container, DexContainer.Client client, List<DexContainer.User> users) {
+        if (users.isEmpty()) {
+            throw new IllegalArgumentException("At least one user is required.");
+        }
+        this.container = container;
+        this.client = client;
+        this.users = List.copyOf(users);
+    }
+
+    /**
+     * Set the number of logins started per second. Defaults to 10.
+     *
+     * @param loginsPerSecond the arrival rate, strictly positive
+     * @return this instance
+     */
+    public DexLoadGenerator withArrivalRate(double loginsPerSecond) {
+        if (!(loginsPerSecond > 0)) {
+            throw new IllegalArgumentException("Arrival rate must be strictly positive.");
+        }
+        this.arrivalRate = loginsPerSecond;
+        return this;
+    }
+
+    /**
+     * Set how long logins are started for. Logins still in flight at the end are awaited, and
+     * included in the report. Defaults to 10 seconds.
+     *
+     * @param duration the duration, strictly positive
+     * @return this instance
+     */
+    public DexLoadGenerator withDuration(Duration duration) {
+        if (duration.isNegative() || duration.isZero()) {
+            throw new IllegalArgumentException("Duration must be strictly positive.");
+        }
+        this.duration = duration;
+        return this;
+    }
+
+    /**
+     * Set the scopes requested on every login. Defaults to {@code openid email profile}.
+     *
+     * @param scopes the scopes
+     * @return this instance
+     */
+    public DexLoadGenerator withScopes(String... scopes) {
+        this.scopes = scopes.clone();
+        return this;
+    }
+
+    /**
+     * Start logins at the configured arrival rate for the configured duration, then wait for all logins
+     * to complete. Blocks the calling thread.
+     *
+     * @return the throughput and latencies of the run
+     * @throws IllegalStateException if the container is not started
+     */
+    public Report run() {
+        var tokens = container.getTokens();
+        var steps = new EnumMap<Step, LatencyHistogram>(Step.class);
+        for (var step : Step.values()) {
+            steps.put(step, new LatencyHistogram());
+        }
+        var logins = new LatencyHistogram();
+        var failures = new LongAdder();
+        var nextUser = new AtomicInteger();
+        var interval = (long) (TimeUnit.SECONDS.toNanos(1) / arrivalRate);
+        var started = 0L;
+
+        var executor = newExecutor();
+        var start = System.nanoTime();
+        try {
+            for (var next = start; next - start < duration.toNanos(); next += interval) {
+                if (!parkUntil(next)) {
+                    break;
+                }
+                var user = users.get(Math.floorMod(nextUser.getAndIncrement(), users.size()));
+                executor.execute(() -> {
+                    var loginStart = System.nanoTime();
+                    try {
+                        tokens.authorizationCode(client, user, (step, nanos) -> steps.get(step).record(nanos), scopes);
+                        logins.record(System.nanoTime() - loginStart);
+                    } catch (RuntimeException e) {
+                        failures.increment();
+                    }
+                });
+                started++;
+            }
+        } finally {
+            executor.shutdown();
+        }
+        try {
+            if (!executor.awaitTermination(DRAIN_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        var elapsed = Duration.ofNanos(System.nanoTime() - start);
+        return new Report(elapsed, started, logins.count(), failures.sum(), Collections.unmodifiableMap(steps), logins);
+    }
+
+    /**
+     * Park the calling thread until {@code deadline}, in {@link System#nanoTime()} terms. Parks again
+     * after spurious wakeups, so that logins do not start ahead of schedule.
+     *
+     * @param deadline the time to wake up at
+     * @return {@code false} if the thread was interrupted
+     */
+    private static boolean parkUntil(long deadline) {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            if (Thread.currentThread().isInterrupted()) {
+                return false;
+            }
+            LockSupport.parkNanos(remaining);
+        }
+        return !Thread.currentThread().isInterrupted();
+    }
+
+    /**
+     * Use one virtual thread per login when available. This library targets Java 17, so virtual threads
+     * are looked up reflectively.
+     */
+    private static ExecutorService newExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException | IllegalAccessException | InvocationTargetException e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                var thread = new Thread(runnable, "dex-load-generator");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * The steps of an {@code authorization_code} login.
+     */
+    public enum Step {
+        /**
+         * The authorization request, redirecting to the login page.
+         */
+        AUTHORIZE,
+        /**
+         * Submitting the user's credentials to the login page.
+         */
+        LOGIN,
+        /**
+         * Following the redirects of Dex after the login, through the approval endpoint, until Dex
+         * redirects to the client's {@code redirect_uri} with an authorization code. The redirect to the
+         * app is not followed, there is no app in the loop.
+         */
+        APPROVAL,
+        /**
+         * Exchanging the authorization code for tokens.
+         */
+        TOKEN
+    }
+
+    /**
+     * The outcome of a load generator run.
+     *
+     * @param elapsed   the wall-clock time of the run, including waiting for in-flight logins
+     * @param started   the number of logins started
+     * @param completed the number of logins that obtained tokens
+     * @param failed    the number of logins that failed
+     * @param steps     the latency of each login step, for successful steps
+     * @param logins    the end-to-end latency of successful logins
+     */
+    public record Report(Duration elapsed, long started, long completed, long failed,
+                         Map<Step, LatencyHistogram> steps, LatencyHistogram logins) {
+
+        /**
+         * The number of completed logins per second.
+         *
+         * @return the throughput
+         */
+        public double throughput() {
+            var seconds = elapsed.toNanos() / (double) TimeUnit.SECONDS.toNanos(1);
+            return seconds == 0 ? 0 : completed / seconds;
+        }
+
+        /**
+         * The latency of a given login step.
+         *
+         * @param step the step
+         * @return the latency histogram
+         */
+        public LatencyHistogram getLatency(Step step) {
+            return steps.get(step);
+        }
+
+        @Override
+        public String toString() {
+            var sb = new StringBuilder("%d logins started, %d completed, %d failed in %d ms (%.1f logins/s)%n"
+                    .formatted(started, completed, failed, elapsed.toMillis(), throughput()));
+            for (var step : Step.values()) {
+                sb.append(line(step.name().toLowerCase(), steps.get(step)));
+            }
+            sb.append(line("total", logins));
+            return sb.toString();
+        }
+
+        private static String line(String name, LatencyHistogram histogram) {
+            if (histogram.count() == 0) {
+                return "%-10s -%n".formatted(name);
+            }
+            return "%-10s p50=%d ms p95=%d ms p99=%d ms%n".formatted(
+                    name,
+                    histogram.percentile(50).toMillis(),
+                    histogram.percentile(95).toMillis(),
+                    histogram.percentile(99).toMillis()
+            );
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Caches the OpenID configuration and the JWKS of a running Dex IDP. The configuration does not change
+ * for the lifetime of the Dex process, and is fetched once. Its {@code issuer} must match the issuer
+ * URI Dex is reached with. The JWKS is fetched again once Dex may have
+ * rotated its keys, according to the {@code Cache-Control} header it serves the keys with.
+ */
+final class DexMetadata {
+
+    private static final Pattern MAX_AGE = Pattern.compile("max-age=(\\d+)");
+
+    private static final Duration DEFAULT_JWKS_MAX_AGE = Duration.ofMinutes(1);
+
+    private final String issuerUri;
+
+    private volatile OpenidConfiguration openidConfiguration;
+
+    private volatile Jwks jwks;
+
+    private volatile long jwksGeneration = 0;
+
+    DexMetadata(String issuerUri) {
+        this.issuerUri = issuerUri;
+    }
+
+    OpenidConfiguration openidConfiguration() {
+        var current = openidConfiguration;
+        if (current == null) {
+            synchronized (this) {
+                if (openidConfiguration == null) {
+                    var response = get(URI.create(issuerUri + "/.well-known/openid-configuration"));
+                    var configuration = OpenidConfiguration.from(Json.parseObject(response.body()));
+                    // Tokens carry the configured issuer, a mismatch would only show when verifying them
+                    if (!issuerUri.equals(configuration.issuer())) {
+                        throw new IllegalStateException("Dex at %s advertises issuer %s, expected %s"
+                                .formatted(issuerUri, configuration.issuer(), issuerUri));
+                    }
+                    openidConfiguration = configuration;
+                }
+                current = openidConfiguration;
+            }
+        }
+        return current;
+    }
+
+    Jwks jwks() {
+        var current = jwks;
+        if (current == null || !Instant.now().isBefore(current.expiresAt())) {
+            current = refreshJwks(current);
+        }
+        return current;
+    }
+
+    /**
+     * Fetch the JWKS again, unless it was already refreshed by another thread since {@code stale} was read.
+     *
+     * @param stale the JWKS known to be stale, or {@code null}
+     * @return the fresh JWKS
+     */
+    @SuppressWarnings("unchecked")
+    synchronized Jwks refreshJwks(Jwks stale) {
+        if (jwks != null && jwks != stale) {
+            return jwks;
+        }
+        var response = get(URI.create(openidConfiguration().jwksUri()));
+        var maxAge = response.headers()
+                .firstValue("cache-control")
+                .map(MAX_AGE::matcher)
+                .filter(Matcher::find)
+                .map(m -> Duration.ofSeconds(Long.parseLong(m.group(1))))
+                .orElse(DEFAULT_JWKS_MAX_AGE);
+        var keys = (List<Map<String, Object>>) Json.parseObject(response.body()).getOrDefault("keys", List.of());
+        jwks = new Jwks(response.body(), keys, Instant.now().plus(maxAge));
+        jwksGeneration++;
+        return jwks;
+    }
+
+    /**
+     * Drop the cached JWKS, for example when the Dex storage was replaced.
+     */
+    synchronized void invalidateJwks() {
+        jwks = null;
+        jwksGeneration++;
+    }
+
+    /**
+     * A counter that changes every time the JWKS is fetched again or invalidated. Callers that derive
+     * state from the JWKS, such as parsed public keys, must drop it when the generation changes.
+     *
+     * @return the current generation
+     */
+    long jwksGeneration() {
+        return jwksGeneration;
+    }
+
+    private static HttpResponse<String> get(URI uri) {
+        try {
+            var response = DexHttp.get(uri);
+            if (response.statusCode() != 200) {
+                throw new RuntimeException("Could not fetch %s, status: %s".formatted(uri, response.statusCode()));
+            }
+            return response;
+        } catch (IOException e) {
+            throw new RuntimeException("Could not fetch " + uri, e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while fetching " + uri, e);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A user session kept alive with refresh tokens, for long-running tests that would otherwise log the
+ * user in again every time tokens expire. {@link #getToken()} refreshes the tokens proactively, shortly
+ * before they expire, and the session follows refresh token rotation: every refresh uses the latest
+ * refresh token issued by Dex.
+ * <p>
+ * Instances are thread-safe. Refreshes are serialized, since a rotated refresh token must not be used
+ * twice.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexTokens#newSession(DexContainer.Client, DexContainer.User, String...)
+ */
+public final class DexRefreshSession {
+
+    private static final Duration MAX_REFRESH_MARGIN = Duration.ofSeconds(30);
+
+    private final DexTokens tokens;
+
+    private final DexContainer.Client client;
+
+    private final Clock clock;
+
+    private final LatencyHistogram refreshLatency = new LatencyHistogram();
+
+    private DexTokens.TokenResponse token;
+
+    private String refreshToken;
+
+    private Instant refreshAt;
+
+    private long refreshes = 0;
+
+    private long rotations = 0;
+
+    DexRefreshSession(DexTokens tokens, DexContainer.Client client, DexTokens.TokenResponse token, Clock clock) {
+        this.tokens = tokens;
+        this.client = client;
+        this.clock = clock;
+        this.refreshToken = token.refreshToken();
+        update(token);
+    }
+
+    /**
+     * Get the current tokens of the session, refreshing them first when they are about to expire.
+     *
+     * @return the current tokens
+     * @throws DexTokens.TokenException if the tokens need to be refreshed, and Dex does not refresh them
+     */
+    public synchronized DexTokens.TokenResponse getToken() {
+        if (!clock.instant().isBefore(refreshAt)) {
+            refresh();
+        }
+        return token;
+    }
+
+    /**
+     * Refresh the tokens of the session now, with the latest refresh token.
+     *
+     * @return the new tokens
+     * @throws DexTokens.TokenException if Dex does not refresh the tokens
+     */
+    public synchronized DexTokens.TokenResponse refresh() {
+        var start = System.nanoTime();
+        var refreshed = tokens.refresh(client, refreshToken);
+        refreshLatency.record(System.nanoTime() - start);
+        refreshes++;
+        // Dex may not rotate the refresh token, in which case the response does not include one
+        if (refreshed.refreshToken() != null && !refreshed.refreshToken().equals(refreshToken)) {
+            refreshToken = refreshed.refreshToken();
+            rotations++;
+        }
+        update(refreshed);
+        return token;
+    }
+
+    /**
+     * The latest refresh token of the session.
+     *
+     * @return the refresh token
+     */
+    public synchronized String getRefreshToken() {
+        return refreshToken;
+    }
+
+    /**
+     * The number of times tokens were refreshed.
+     *
+     * @return the refresh count
+     */
+    public synchronized long getRefreshes() {
+        return refreshes;
+    }
+
+    /**
+     * The number of refreshes where Dex issued a new refresh token.
+     *
+     * @return the rotation count
+     */
+    public synchronized long getRotations() {
+        return rotations;
+    }
+
+    /**
+     * The latency of the {@code refresh_token} requests made by this session.
+     *
+     * @return the latency histogram
+     */
+    public LatencyHistogram getRefreshLatency() {
+        return refreshLatency;
+    }
+
+    /**
+     * Refresh tokens {@code min(30s, lifetime / 4)} before they expire.
+     */
+    private void update(DexTokens.TokenResponse token) {
+        var now = clock.instant();
+        var expiry = TokenCache.expiry(token);
+        var margin = Duration.between(now, expiry).dividedBy(4);
+        if (margin.compareTo(MAX_REFRESH_MARGIN) > 0) {
+            margin = MAX_REFRESH_MARGIN;
+        }
+        this.token = token;
+        this.refreshAt = expiry.minus(margin);
+    }
+}
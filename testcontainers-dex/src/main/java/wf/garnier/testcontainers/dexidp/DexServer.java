@@ -0,0 +1,221 @@
+package wf.garnier.testcontainers.dexidp;
+
+import com.google.protobuf.ByteString;
+import io.grpc.ManagedChannel;
+import wf.garnier.testcontainers.dexidp.grpc.DexGrpc;
+import wf.garnier.testcontainers.dexidp.grpc.DexGrpcApi;
+
+/**
+ * A Dex IDP that is already running, and not managed by this library, for example a Docker Compose
+ * service. It offers the same token and metadata APIs as {@link DexContainer}, and manages clients
+ * and users through the Dex gRPC API, which must be enabled in the Dex configuration:
+ * <pre>{@code
+ * grpc:
+ *   addr: 0.0.0.0:5557
+ * }</pre>
+ * The gRPC channel is opened on first use, and must be closed with {@link #close()}.
+ *
+ * @author Daniel Garnier-Moiroux
+ */
+public final class DexServer implements AutoCloseable {
+
+    private final String issuerUri;
+
+    private final String grpcHost;
+
+    private final int grpcPort;
+
+    private final GrpcChannelFactory grpcChannelFactory;
+
+    private final DexMetadata metadata;
+
+    private final DexTokens tokens;
+
+    private final DexJwtVerifier jwtVerifier;
+
+    private final GrpcMetrics grpcMetrics = new GrpcMetrics();
+
+    private ManagedChannel channel;
+
+    private DexGrpc.DexBlockingStub grpcStub;
+
+    /**
+     * Connect to a running Dex IDP.
+     *
+     * @param issuerUri the issuer URI, as configured in Dex
+     * @param grpcHost  the host of the Dex gRPC API
+     * @param grpcPort  the port of the Dex gRPC API
+     */
+    public DexServer(String issuerUri, String grpcHost, int grpcPort) {
+        this(issuerUri, grpcHost, grpcPort, GrpcChannelFactory.shared());
+    }
+
+    /**
+     * Connect to a running Dex IDP, with a custom {@link GrpcChannelFactory}.
+     *
+     * @param issuerUri          the issuer URI, as configured in Dex
+     * @param grpcHost           the host of the Dex gRPC API
+     * @param grpcPort           the port of the Dex gRPC API
+     * @param grpcChannelFactory the channel factory
+     */
+    public DexServer(String issuerUri, String grpcHost, int grpcPort, GrpcChannelFactory grpcChannelFactory) {
+        this.issuerUri = issuerUri;
+        this.grpcHost = grpcHost;
+        this.grpcPort = grpcPort;
+        this.grpcChannelFactory = grpcChannelFactory;
+        this.metadata = new DexMetadata(issuerUri);
+        this.tokens = new DexTokens(metadata::openidConfiguration, new TokenCache());
+        this.jwtVerifier = new DexJwtVerifier(issuerUri, metadata);
+    }
+
+    /**
+     * The issuer URI of the Dex IDP.
+     *
+     * @return the issuer URI
+     */
+    public String getIssuerUri() {
+        return issuerUri;
+    }
+
+    /**
+     * Return the OpenID Provider Metadata of the Dex IDP. It is fetched on first use, and cached.
+     *
+     * @return the OpenID configuration
+     * @see DexContainer#getOpenidConfiguration()
+     */
+    public OpenidConfiguration getOpenidConfiguration() {
+        return metadata.openidConfiguration();
+    }
+
+    /**
+     * Return the JSON Web Key Set used by the Dex IDP to sign tokens. It is fetched on first use, and
+     * cached until Dex may rotate its signing keys.
+     *
+     * @return the JWKS
+     * @see DexContainer#getJwks()
+     */
+    public Jwks getJwks() {
+        return metadata.jwks();
+    }
+
+    /**
+     * Obtain tokens from the Dex IDP, programmatically, without going through a browser.
+     *
+     * @return the token API, bound to this server
+     * @see DexContainer#getTokens()
+     */
+    public DexTokens getTokens() {
+        return tokens;
+    }
+
+    /**
+     * Return a verifier for JWTs issued by the Dex IDP.
+     *
+     * @return the JWT verifier, bound to this server
+     * @see DexContainer#getJwtVerifier()
+     */
+    public DexJwtVerifier getJwtVerifier() {
+        return jwtVerifier;
+    }
+
+    /**
+     * Return the metrics for the calls made to the Dex gRPC API.
+     *
+     * @return the gRPC metrics
+     * @see DexContainer#getGrpcMetrics()
+     */
+    public GrpcMetrics getGrpcMetrics() {
+        return grpcMetrics;
+    }
+
+    /**
+     * Register the client with the Dex IDP, replacing any client with the same {@code client_id}.
+     *
+     * @param client the client
+     */
+    public synchronized void registerClient(DexContainer.Client client) {
+        grpcStub().deleteClient(deleteClientRequest(client.clientId()));
+        grpcStub().createClient(createClientRequest(client));
+    }
+
+    /**
+     * Remove a client from the Dex IDP. Does nothing when the client does not exist.
+     *
+     * @param clientId the {@code client_id} of the client
+     */
+    public synchronized void unregisterClient(String clientId) {
+        grpcStub().deleteClient(deleteClientRequest(clientId));
+    }
+
+    /**
+     * Register the user with the Dex IDP, replacing any user with the same email.
+     *
+     * @param user the user
+     */
+    public synchronized void registerUser(DexContainer.User user) {
+        grpcStub().deletePassword(deletePasswordRequest(user.email()));
+        grpcStub().createPassword(createPasswordRequest(user));
+    }
+
+    /**
+     * Remove a user from the Dex IDP. Does nothing when the user does not exist.
+     *
+     * @param email the email of the user
+     */
+    public synchronized void unregisterUser(String email) {
+        grpcStub().deletePassword(deletePasswordRequest(email));
+    }
+
+    /**
+     * Close the gRPC channel, if it was opened.
+     */
+    @Override
+    public synchronized void close() {
+        if (channel != null) {
+            channel.shutdown();
+        }
+        channel = null;
+        grpcStub = null;
+    }
+
+    private DexGrpc.DexBlockingStub grpcStub() {
+        if (grpcStub == null) {
+            channel = grpcChannelFactory.createChannel(grpcHost, grpcPort);
+            grpcStub = DexGrpc.newBlockingStub(channel).withInterceptors(grpcMetrics.interceptor());
+        }
+        return grpcStub;
+    }
+
+    static DexGrpcApi.CreateClientReq createClientRequest(DexContainer.Client client) {
+        var grpcClient = DexGrpcApi.Client.newBuilder()
+                .setId(client.clientId())
+                .setSecret(client.clientSecret())
+                .addRedirectUris(client.redirectUri());
+        return DexGrpcApi.CreateClientReq.newBuilder()
+                .setClient(grpcClient)
+                .build();
+    }
+
+    static DexGrpcApi.DeleteClientReq deleteClientRequest(String clientId) {
+        return DexGrpcApi.DeleteClientReq.newBuilder()
+                .setId(clientId)
+                .build();
+    }
+
+    static DexGrpcApi.CreatePasswordReq createPasswordRequest(DexContainer.User user) {
+        var password = DexGrpcApi.Password.newBuilder()
+                .setEmail(user.email())
+                .setUserId(user.uuid())
+                .setHash(ByteString.copyFromUtf8(user.bcryptPassword()))
+                .setUsername(user.username());
+        return DexGrpcApi.CreatePasswordReq.newBuilder()
+                .setPassword(password)
+                .build();
+    }
+
+    static DexGrpcApi.DeletePasswordReq deletePasswordRequest(String email) {
+        return DexGrpcApi.DeletePasswordReq.newBuilder()
+                .setEmail(email)
+                .build();
+    }
+}
@@ -0,0 +1,239 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * A pool of pre-minted tokens, for load tests where minting tokens on the request path would skew
+ * latency measurements. The pool holds a fixed number of tokens per user (or per client, for
+ * {@code client_credentials} tokens), hands them out round-robin, and background workers replace
+ * each token halfway through its lifetime.
+ * <p>
+ * {@link #acquire()} never blocks: when no fresh token is available, it records a miss and returns
+ * {@code null}. The pool must be closed to stop the background workers.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexTokens#newPool(DexContainer.Client, List, int, String...)
+ * @see DexTokens#newClientPool(DexContainer.Client, int, String...)
+ */
+public final class DexTokenPool implements AutoCloseable {
+
+    private static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    private static final int WORKERS = 2;
+
+    private final ScheduledExecutorService executor;
+
+    private final Map<String, Subject> subjects = new LinkedHashMap<>();
+
+    private final Subject[] subjectList;
+
+    private final AtomicInteger cursor = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LatencyHistogram refillLag = new LatencyHistogram();
+
+    private volatile boolean closed = false;
+
+    /**
+     * Create and fill the pool. Blocks until every token has been minted.
+     *
+     * @param minters          the function minting tokens, by subject
+     * @param tokensPerSubject the number of tokens to keep for each subject
+     */
+    DexTokenPool(Map<String, Supplier<DexTokens.TokenResponse>> minters, int tokensPerSubject) {
+        if (minters.isEmpty()) {
+            throw new IllegalArgumentException("token pool must have at least one user or client");
+        }
+        if (tokensPerSubject < 1) {
+            throw new IllegalArgumentException("tokensPerSubject must be positive");
+        }
+        var threadCount = new AtomicInteger();
+        this.executor = Executors.newScheduledThreadPool(WORKERS, runnable -> {
+            var thread = new Thread(runnable, "dex-token-pool-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        minters.forEach((name, mint) -> subjects.put(name, new Subject(mint, tokensPerSubject)));
+        this.subjectList = subjects.values().toArray(new Subject[0]);
+        fill();
+    }
+
+    private void fill() {
+        var futures = new ArrayList<CompletableFuture<Void>>();
+        for (var subject : subjectList) {
+            for (var slot : subject.slots) {
+                futures.add(CompletableFuture.runAsync(() -> slot.refill(null), executor));
+            }
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        for (var subject : subjectList) {
+            for (var slot : subject.slots) {
+                if (slot.token == null) {
+                    close();
+                    throw new DexTokens.TokenException("Could not fill the token pool", slot.lastError);
+                }
+            }
+        }
+    }
+
+    /**
+     * Get a fresh token, round-robin across all users or clients of this pool. Never blocks.
+     *
+     * @return a token, or {@code null} if no fresh token is available
+     */
+    @Nullable
+    public DexTokens.TokenResponse acquire() {
+        return subjectList[Math.floorMod(cursor.getAndIncrement(), subjectList.length)].acquire();
+    }
+
+    /**
+     * Get a fresh token for the given user. Never blocks.
+     *
+     * @param user the user, who must be part of the pool
+     * @return a token, or {@code null} if no fresh token is available
+     * @throws IllegalArgumentException if the user is not part of the pool
+     */
+    @Nullable
+    public DexTokens.TokenResponse acquire(DexContainer.User user) {
+        var subject = subjects.get(user.email());
+        if (subject == null) {
+            throw new IllegalArgumentException("User %s is not part of the token pool".formatted(user.email()));
+        }
+        return subject.acquire();
+    }
+
+    /**
+     * The number of calls to {@code acquire} that returned a token.
+     *
+     * @return the hit count
+     */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /**
+     * The number of calls to {@code acquire} that returned {@code null}, because no fresh token was
+     * available.
+     *
+     * @return the miss count
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * How late tokens were replaced, compared to when they were due for replacement. The lag
+     * includes the time taken by Dex to mint the token.
+     *
+     * @return the refill lag histogram
+     */
+    public LatencyHistogram getRefillLag() {
+        return refillLag;
+    }
+
+    /**
+     * Stop the background workers. Tokens that were already acquired remain valid.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdownNow();
+    }
+
+    private final class Subject {
+
+        private final Slot[] slots;
+
+        private final AtomicInteger slotCursor = new AtomicInteger();
+
+        private Subject(Supplier<DexTokens.TokenResponse> mint, int size) {
+            this.slots = new Slot[size];
+            for (int i = 0; i < size; i++) {
+                slots[i] = new Slot(mint);
+            }
+        }
+
+        @Nullable
+        private DexTokens.TokenResponse acquire() {
+            var now = System.currentTimeMillis();
+            for (int i = 0; i < slots.length; i++) {
+                var pooled = slots[Math.floorMod(slotCursor.getAndIncrement(), slots.length)].token;
+                if (pooled != null && pooled.freshUntil() > now) {
+                    hits.increment();
+                    return pooled.token();
+                }
+            }
+            misses.increment();
+            return null;
+        }
+    }
+
+    private final class Slot {
+
+        private final Supplier<DexTokens.TokenResponse> mint;
+
+        private volatile PooledToken token;
+
+        private volatile RuntimeException lastError;
+
+        private Slot(Supplier<DexTokens.TokenResponse> mint) {
+            this.mint = mint;
+        }
+
+        /**
+         * Mint a token and schedule its replacement.
+         *
+         * @param dueAt when the refill was due, in epoch millis, or {@code null} when filling the pool
+         */
+        private void refill(@Nullable Long dueAt) {
+            try {
+                var response = mint.get();
+                var now = System.currentTimeMillis();
+                if (dueAt != null) {
+                    refillLag.record(Duration.ofMillis(now - dueAt));
+                }
+                var lifetime = Math.max(TokenCache.expiry(response).toEpochMilli() - now, 0);
+                var margin = TokenCache.expiryMargin(Duration.ofMillis(lifetime)).toMillis();
+                token = new PooledToken(response, now + lifetime - margin);
+                schedule(now + lifetime / 2, now + lifetime / 2);
+            } catch (RuntimeException e) {
+                lastError = e;
+                if (dueAt != null) {
+                    // Keep the original due date, so that the lag reflects the failure
+                    schedule(System.currentTimeMillis() + RETRY_DELAY.toMillis(), dueAt);
+                }
+            }
+        }
+
+        private void schedule(long runAt, long dueAt) {
+            if (closed) {
+                return;
+            }
+            try {
+                executor.schedule(() -> refill(dueAt), Math.max(runAt - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // The pool is closing
+            }
+        }
+    }
+
+    private record PooledToken(DexTokens.TokenResponse token, long freshUntil) {
+    }
+}
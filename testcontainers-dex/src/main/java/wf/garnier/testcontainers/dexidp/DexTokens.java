@@ -0,0 +1,491 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Obtain tokens from a running Dex IDP, programmatically, without a browser. All requests go through
+ * a single {@link java.net.http.HttpClient}, shared by every instance, which keeps connections to Dex
+ * alive across token requests.
+ * <p>
+ * Instances are bound to a running {@link DexContainer}, and are thread-safe.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexContainer#getTokens()
+ */
+public final class DexTokens {
+
+    private static final String[] DEFAULT_SCOPES = {"openid", "email", "profile"};
+
+    private static final String[] DEFAULT_CLIENT_SCOPES = {"openid"};
+
+    private static final String OFFLINE_ACCESS = "offline_access";
+
+    private static final int MAX_REDIRECTS = 5;
+
+    private final Supplier<OpenidConfiguration> openidConfiguration;
+
+    private final TokenCache cache;
+
+    DexTokens(Supplier<OpenidConfiguration> openidConfiguration, TokenCache cache) {
+        this.openidConfiguration = openidConfiguration;
+        this.cache = cache;
+    }
+
+    /**
+     * Perform a full OpenID Connect {@code authorization_code} flow, logging the user in through the
+     * Dex login form, and exchanging the authorization code for tokens.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile}.
+     *
+     * @param client the OAuth2 Client, which must be registered with the container
+     * @param user   the User logging in, who must be registered with the container
+     * @param scopes the scopes to request
+     * @return the parsed token response
+     * @throws TokenException if Dex does not issue tokens, for example when the user or client is unknown
+     */
+    public TokenResponse authorizationCode(DexContainer.Client client, DexContainer.User user, String... scopes) {
+        return authorizationCode(client, user, (step, nanos) -> {
+        }, scopes);
+    }
+
+    /**
+     * Perform the {@code authorization_code} flow, reporting how long each step took, in nanoseconds.
+     * Steps that fail are not reported.
+     */
+    TokenResponse authorizationCode(DexContainer.Client client, DexContainer.User user, ObjLongConsumer<DexLoadGenerator.Step> stepTimer, String... scopes) {
+        var authorizationRequest = form(
+                "response_type", "code",
+                "client_id", client.clientId(),
+                "scope", scopes(scopes),
+                "redirect_uri", client.redirectUri()
+        );
+        // The "local" connector is for users logging in with a password
+        var authorizationUri = URI.create(openidConfiguration.get().authorizationEndpoint() + "/local?" + authorizationRequest);
+        var start = System.nanoTime();
+        var loginUri = authorizationUri.resolve(
+                redirectLocation(send(get(authorizationUri)), "Dex did not redirect to the login page")
+        );
+        start = recordStep(stepTimer, DexLoadGenerator.Step.AUTHORIZE, start);
+
+        var loginRequest = HttpRequest.newBuilder(loginUri)
+                .header("content-type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString(form("login", user.email(), "password", user.clearTextPassword())))
+                .build();
+        var location = redirectLocation(send(loginRequest), "Dex did not redirect back to the app, is the password correct?");
+        start = recordStep(stepTimer, DexLoadGenerator.Step.LOGIN, start);
+
+        // Dex may go through intermediate pages, such as the approval screen, before redirecting to the app
+        for (int i = 0; !location.startsWith(client.redirectUri()); i++) {
+            if (i >= MAX_REDIRECTS) {
+                throw new TokenException("Too many redirects, Dex did not redirect back to the app");
+            }
+            var next = loginUri.resolve(location);
+            location = redirectLocation(send(get(next)), "Dex did not redirect back to the app");
+        }
+        start = recordStep(stepTimer, DexLoadGenerator.Step.APPROVAL, start);
+
+        var callbackParameters = queryParameters(URI.create(location));
+        if (callbackParameters.containsKey("error")) {
+            throw new TokenException("Authorization request errored. Details: %s".formatted(callbackParameters));
+        }
+        var code = callbackParameters.get("code");
+        if (code == null) {
+            throw new TokenException("Missing authorization code in the response");
+        }
+
+        var token = requestToken(client, form(
+                "grant_type", "authorization_code",
+                "code", code,
+                "redirect_uri", client.redirectUri()
+        ));
+        recordStep(stepTimer, DexLoadGenerator.Step.TOKEN, start);
+        return token;
+    }
+
+    /**
+     * Obtain tokens with the OAuth2 {@code password} grant, exchanging the user's credentials for tokens
+     * in a single request to the token endpoint. This is much faster than {@link #authorizationCode}, and
+     * is the preferred way to obtain tokens when the login flow itself is not under test.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile}.
+     *
+     * @param client the OAuth2 Client, which must be registered with the container
+     * @param user   the User, who must be registered with the container
+     * @param scopes the scopes to request
+     * @return the parsed token response
+     * @throws TokenException if Dex does not issue tokens, for example when the user or client is unknown
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc6749#section-4.3">RFC 6749 - 4.3. Resource Owner Password Credentials Grant</a>
+     */
+    public TokenResponse password(DexContainer.Client client, DexContainer.User user, String... scopes) {
+        return requestToken(client, form(
+                "grant_type", "password",
+                "username", user.email(),
+                "password", user.clearTextPassword(),
+                "scope", scopes(scopes)
+        ));
+    }
+
+    /**
+     * Get tokens for the user, issued to the client. Tokens are cached by client, user and scopes, and
+     * only minted again, with the {@code password} grant, when they are about to expire. Cached tokens are
+     * dropped when the client or the user is updated or removed from the container.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile}.
+     *
+     * @param client the OAuth2 Client, which must be registered with the container
+     * @param user   the User, who must be registered with the container
+     * @param scopes the scopes to request
+     * @return a token response, valid for at least 30 seconds, or a quarter of the token lifetime when
+     * tokens are issued for less than 2 minutes
+     * @throws TokenException if Dex does not issue tokens, for example when the user or client is unknown
+     * @see #password(DexContainer.Client, DexContainer.User, String...)
+     */
+    public TokenResponse getToken(DexContainer.Client client, DexContainer.User user, String... scopes) {
+        var effectiveScopes = scopes.length == 0 ? DEFAULT_SCOPES : scopes;
+        return cache.get(
+                TokenCache.Key.of(client, user, effectiveScopes),
+                () -> password(client, user, effectiveScopes)
+        );
+    }
+
+    /**
+     * Obtain tokens with the OAuth2 {@code client_credentials} grant, for service-to-service calls where
+     * no user is involved. The client authenticates with its own credentials, in a single request to the
+     * token endpoint.
+     * <p>
+     * When no scopes are provided, requests {@code openid}.
+     *
+     * @param client the OAuth2 Client, which must be registered with the container
+     * @param scopes the scopes to request
+     * @return the parsed token response
+     * @throws TokenException if Dex does not issue tokens, for example when the client is unknown
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc6749#section-4.4">RFC 6749 - 4.4. Client Credentials Grant</a>
+     */
+    public TokenResponse clientCredentials(DexContainer.Client client, String... scopes) {
+        return requestToken(client, form(
+                "grant_type", "client_credentials",
+                "scope", String.join(" ", clientScopes(scopes))
+        ));
+    }
+
+    /**
+     * Get a token for the client, with the {@code client_credentials} grant. Tokens are cached, and
+     * only minted again when they are about to expire.
+     * <p>
+     * When no scopes are provided, requests {@code openid}.
+     *
+     * @param client the OAuth2 Client, which must be registered with the container
+     * @param scopes the scopes to request
+     * @return a token response, valid for at least 30 seconds, or a quarter of the token lifetime when
+     * tokens are issued for less than 2 minutes
+     * @throws TokenException if Dex does not issue tokens, for example when the client is unknown
+     * @see #clientCredentials(DexContainer.Client, String...)
+     */
+    public TokenResponse getToken(DexContainer.Client client, String... scopes) {
+        var effectiveScopes = clientScopes(scopes);
+        return cache.get(
+                TokenCache.Key.of(client, null, effectiveScopes),
+                () -> clientCredentials(client, effectiveScopes)
+        );
+    }
+
+    /**
+     * Create a {@link DexTokenPool} of pre-minted tokens for the given users, issued to the client with
+     * the {@code password} grant. Blocks until the pool is filled.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile}.
+     *
+     * @param client        the OAuth2 Client, which must be registered with the container
+     * @param users         the Users, who must be registered with the container
+     * @param tokensPerUser the number of tokens to keep ready for each user
+     * @param scopes        the scopes to request
+     * @return the filled pool, which must be closed after use
+     * @throws TokenException if the pool cannot be filled
+     */
+    public DexTokenPool newPool(DexContainer.Client client, List<DexContainer.User> users, int tokensPerUser, String... scopes) {
+        var effectiveScopes = scopes.length == 0 ? DEFAULT_SCOPES : scopes;
+        var minters = new LinkedHashMap<String, Supplier<TokenResponse>>();
+        for (var user : users) {
+            minters.put(user.email(), () -> password(client, user, effectiveScopes));
+        }
+        return new DexTokenPool(minters, tokensPerUser);
+    }
+
+    /**
+     * Create a {@link DexTokenPool} of pre-minted tokens for the client, with the
+     * {@code client_credentials} grant. Blocks until the pool is filled.
+     * <p>
+     * When no scopes are provided, requests {@code openid}.
+     *
+     * @param client the OAuth2 Client, which must be registered with the container
+     * @param size   the number of tokens to keep ready
+     * @param scopes the scopes to request
+     * @return the filled pool, which must be closed after use
+     * @throws TokenException if the pool cannot be filled
+     */
+    public DexTokenPool newClientPool(DexContainer.Client client, int size, String... scopes) {
+        var effectiveScopes = clientScopes(scopes);
+        return new DexTokenPool(
+                Map.of(client.clientId(), () -> clientCredentials(client, effectiveScopes)),
+                size
+        );
+    }
+
+    /**
+     * Obtain new tokens with the OAuth2 {@code refresh_token} grant. Dex rotates refresh tokens by
+     * default: the response holds a new refresh token, and the one passed in can no longer be used.
+     *
+     * @param client       the OAuth2 Client the refresh token was issued to
+     * @param refreshToken the refresh token
+     * @return the parsed token response
+     * @throws TokenException if Dex does not issue tokens, for example when the refresh token was revoked
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc6749#section-6">RFC 6749 - 6. Refreshing an Access Token</a>
+     */
+    public TokenResponse refresh(DexContainer.Client client, String refreshToken) {
+        return requestToken(client, form(
+                "grant_type", "refresh_token",
+                "refresh_token", refreshToken
+        ));
+    }
+
+    /**
+     * Log the user in with the {@code password} grant, requesting {@code offline_access}, and keep
+     * the session alive with refresh tokens. See {@link DexRefreshSession}.
+     * <p>
+     * When no scopes are provided, requests {@code openid email profile offline_access}. Otherwise,
+     * {@code offline_access} is added to the requested scopes.
+     *
+     * @param client the OAuth2 Client, which must be registered with the container
+     * @param user   the User, who must be registered with the container
+     * @param scopes the scopes to request
+     * @return the session
+     * @throws TokenException if Dex does not issue a refresh token
+     */
+    public DexRefreshSession newSession(DexContainer.Client client, DexContainer.User user, String... scopes) {
+        return newSession(client, user, Clock.systemUTC(), scopes);
+    }
+
+    /**
+     * Start a session that decides when to refresh its tokens with the given clock, so that tests can
+     * move past the expiry of tokens without waiting for it.
+     */
+    DexRefreshSession newSession(DexContainer.Client client, DexContainer.User user, Clock clock, String... scopes) {
+        var sessionScopes = new LinkedHashSet<>(List.of(scopes.length == 0 ? DEFAULT_SCOPES : scopes));
+        sessionScopes.add(OFFLINE_ACCESS);
+        var token = password(client, user, sessionScopes.toArray(new String[0]));
+        if (token.refreshToken() == null) {
+            throw new TokenException("Dex did not issue a refresh token for scopes %s".formatted(sessionScopes));
+        }
+        return new DexRefreshSession(this, client, token, clock);
+    }
+
+    /**
+     * Make a request to the token endpoint, authenticating the client with HTTP Basic.
+     *
+     * @param client the client
+     * @param body   the url-encoded form body
+     * @return the parsed response
+     */
+    TokenResponse requestToken(DexContainer.Client client, String body) {
+        var credentials = Base64.getEncoder()
+                .encodeToString((client.clientId() + ":" + client.clientSecret()).getBytes(StandardCharsets.UTF_8));
+        var request = HttpRequest.newBuilder(URI.create(openidConfiguration.get().tokenEndpoint()))
+                .header("content-type", "application/x-www-form-urlencoded")
+                .header("authorization", "Basic " + credentials)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        var response = send(request);
+        Map<String, Object> json;
+        try {
+            json = Json.parseObject(response.body());
+        } catch (IllegalArgumentException e) {
+            throw new TokenException("Token response is not valid JSON. Details: %s".formatted(response.body()));
+        }
+        if (response.statusCode() != 200 || json.containsKey("error")) {
+            throw new TokenException("Token request errored. Details: %s".formatted(response.body()));
+        }
+        return TokenResponse.from(json);
+    }
+
+    private static long recordStep(ObjLongConsumer<DexLoadGenerator.Step> stepTimer, DexLoadGenerator.Step step, long start) {
+        var end = System.nanoTime();
+        stepTimer.accept(step, end - start);
+        return end;
+    }
+
+    private static HttpRequest get(URI uri) {
+        return HttpRequest.newBuilder(uri).GET().build();
+    }
+
+    private static HttpResponse<String> send(HttpRequest request) {
+        try {
+            return DexHttp.send(request);
+        } catch (IOException e) {
+            throw new TokenException("Request to Dex failed: %s %s".formatted(request.method(), request.uri()), e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new TokenException("Interrupted while calling Dex: %s %s".formatted(request.method(), request.uri()), e);
+        }
+    }
+
+    private static String redirectLocation(HttpResponse<?> response, String errorMessage) {
+        return response.headers()
+                .firstValue("location")
+                .orElseThrow(() -> new TokenException(errorMessage));
+    }
+
+    private static String scopes(String... scopes) {
+        return String.join(" ", scopes.length == 0 ? DEFAULT_SCOPES : scopes);
+    }
+
+    private static String[] clientScopes(String... scopes) {
+        return scopes.length == 0 ? DEFAULT_CLIENT_SCOPES : scopes;
+    }
+
+    private static String form(String... keysAndValues) {
+        var form = new StringBuilder();
+        for (int i = 0; i < keysAndValues.length; i += 2) {
+            if (i > 0) {
+                form.append('&');
+            }
+            form.append(URLEncoder.encode(keysAndValues[i], StandardCharsets.UTF_8))
+                    .append('=')
+                    .append(URLEncoder.encode(keysAndValues[i + 1], StandardCharsets.UTF_8));
+        }
+        return form.toString();
+    }
+
+    private static Map<String, String> queryParameters(URI uri) {
+        var query = uri.getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return Map.of();
+        }
+        var parameters = new LinkedHashMap<String, String>();
+        for (var pair : query.split("&")) {
+            var separator = pair.indexOf('=');
+            var key = separator < 0 ? pair : pair.substring(0, separator);
+            var value = separator < 0 ? "" : pair.substring(separator + 1);
+            parameters.putIfAbsent(
+                    URLDecoder.decode(key, StandardCharsets.UTF_8),
+                    URLDecoder.decode(value, StandardCharsets.UTF_8)
+            );
+        }
+        return parameters;
+    }
+
+    /**
+     * A successful response from the Dex token endpoint.
+     *
+     * @param accessToken  the {@code access_token}
+     * @param tokenType    the {@code token_type}, usually {@code bearer}
+     * @param idToken      the {@code id_token}, or {@code null} if the {@code openid} scope was not requested
+     * @param refreshToken the {@code refresh_token}, or {@code null} if none was issued
+     * @param expiresAt    the expiry of the access token, computed from {@code expires_in}
+     * @author Daniel Garnier-Moiroux
+     * @see <a href="https://datatracker.ietf.org/doc/html/rfc6749#section-5.1">RFC 6749 - 5.1. Successful Response</a>
+     */
+    public record TokenResponse(
+            String accessToken,
+            String tokenType,
+            @Nullable String idToken,
+            @Nullable String refreshToken,
+            Instant expiresAt
+    ) {
+
+        private static TokenResponse from(Map<String, Object> json) {
+            var expiresIn = json.get("expires_in") instanceof Number number ? number.longValue() : 0;
+            return new TokenResponse(
+                    (String) json.get("access_token"),
+                    (String) json.get("token_type"),
+                    (String) json.get("id_token"),
+                    (String) json.get("refresh_token"),
+                    Instant.now().plusSeconds(expiresIn)
+            );
+        }
+
+        /**
+         * Decode the claims of the {@code id_token}. The signature is NOT verified.
+         *
+         * @return the claims
+         * @throws IllegalStateException if there is no {@code id_token}
+         */
+        public Map<String, Object> idTokenClaims() {
+            if (idToken == null) {
+                throw new IllegalStateException("No id_token in the response, was the openid scope requested?");
+            }
+            return decodeClaims(idToken);
+        }
+
+        /**
+         * Decode the claims of the {@code access_token}. The signature is NOT verified.
+         *
+         * @return the claims
+         */
+        public Map<String, Object> accessTokenClaims() {
+            return decodeClaims(accessToken);
+        }
+
+        static Map<String, Object> decodeClaims(String jwt) {
+            var parts = jwt.split("\\.");
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("Token is not a JWT");
+            }
+            var payload = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+            return Json.parseObject(payload);
+        }
+
+        @Override
+        public String toString() {
+            return "TokenResponse{" +
+                    "tokenType='" + tokenType + '\'' +
+                    ", expiresAt=" + expiresAt +
+                    ", idToken=" + (idToken != null ? "[present]" : "null") +
+                    ", refreshToken=" + (refreshToken != null ? "[present]" : "null") +
+                    '}';
+        }
+    }
+
+    /**
+     * Thrown when Dex does not issue a token.
+     *
+     * @author Daniel Garnier-Moiroux
+     */
+    public static class TokenException extends RuntimeException {
+
+        /**
+         * Construct a new exception with the given message.
+         *
+         * @param message the message
+         */
+        public TokenException(String message) {
+            super(message);
+        }
+
+        /**
+         * Construct a new exception with the given message and cause.
+         *
+         * @param message the message
+         * @param cause   the cause
+         */
+        public TokenException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+}
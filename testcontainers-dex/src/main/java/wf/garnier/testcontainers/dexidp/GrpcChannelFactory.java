@@ -0,0 +1,36 @@
+package wf.garnier.testcontainers.dexidp;
+
+import io.grpc.ManagedChannel;
+
+/**
+ * Creates the gRPC {@link ManagedChannel} used by a {@link DexContainer} to register clients and users
+ * with the running Dex IDP, through the Dex admin API.
+ * <p>
+ * By default, containers use {@link #shared()}, so that all containers in the JVM share a single set of
+ * transport threads.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexContainer#withGrpcChannelFactory(GrpcChannelFactory)
+ */
+@FunctionalInterface
+public interface GrpcChannelFactory {
+
+    /**
+     * Create a plaintext channel to the Dex gRPC API. The channel is owned by the container, and is shut
+     * down when the container stops.
+     *
+     * @param host the host of the Dex gRPC API
+     * @param port the port of the Dex gRPC API
+     * @return the channel
+     */
+    ManagedChannel createChannel(String host, int port);
+
+    /**
+     * The default factory, sharing its event loop and executor across all containers.
+     *
+     * @return the shared factory
+     */
+    static SharedGrpcChannelFactory shared() {
+        return SharedGrpcChannelFactory.DEFAULT;
+    }
+}
@@ -0,0 +1,259 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.annotation.Nullable;
+
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ClientStreamTracer;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+
+/**
+ * Metrics for the calls a {@link DexContainer} or a {@link DexServer} makes to the Dex gRPC API, for example
+ * {@code CreateClient} or {@code CreatePassword}. For each method, it records a latency histogram,
+ * the number of calls currently in flight, the number of attempts including retries, and the status
+ * codes of completed calls. The latency is
+ * measured on the client side, and includes the Docker port-forwarding.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see DexContainer#getGrpcMetrics()
+ * @see GrpcMetricsBinder
+ */
+public final class GrpcMetrics {
+
+    private static final ClientStreamTracer NOOP_TRACER = new ClientStreamTracer() {
+    };
+
+    private final ConcurrentMap<String, MethodMetrics> methods = new ConcurrentHashMap<>();
+
+    private final ClientInterceptor interceptor = new MetricsInterceptor();
+
+    GrpcMetrics() {
+    }
+
+    /**
+     * Get the metrics for all methods that have been called, by method name.
+     *
+     * @return the metrics, sorted by method name
+     */
+    public Map<String, MethodMetrics> getMethods() {
+        var called = new TreeMap<String, MethodMetrics>();
+        methods.forEach((name, metrics) -> {
+            if (metrics.called) {
+                called.put(name, metrics);
+            }
+        });
+        return Collections.unmodifiableMap(called);
+    }
+
+    /**
+     * Get the metrics for a given method, for example {@code CreateClient}.
+     *
+     * @param methodName the bare gRPC method name
+     * @return the metrics, or {@code null} if the method was never called.
+     */
+    @Nullable
+    public MethodMetrics getMethod(String methodName) {
+        var metrics = methods.get(methodName);
+        return metrics != null && metrics.called ? metrics : null;
+    }
+
+    /**
+     * Get or create the metrics for a given method. Metrics created ahead of the first call, for example
+     * to bind them to a meter registry, are not listed until the method is called.
+     */
+    MethodMetrics method(String methodName) {
+        return methods.computeIfAbsent(methodName, MethodMetrics::new);
+    }
+
+    /**
+     * The interceptor recording metrics, to be installed on the Dex stub.
+     */
+    ClientInterceptor interceptor() {
+        return interceptor;
+    }
+
+    /**
+     * Metrics for a single gRPC method.
+     *
+     * @author Daniel Garnier-Moiroux
+     */
+    public static final class MethodMetrics {
+
+        private final String name;
+
+        private final LatencyHistogram latency = new LatencyHistogram();
+
+        private final AtomicLong inFlight = new AtomicLong();
+
+        private final ConcurrentMap<Status.Code, LongAdder> statusCodes = new ConcurrentHashMap<>();
+
+        private final LongAdder attempts = new LongAdder();
+
+        private final LongAdder retries = new LongAdder();
+
+        private volatile boolean called;
+
+        private MethodMetrics(String name) {
+            this.name = name;
+        }
+
+        /**
+         * The bare gRPC method name, for example {@code CreateClient}.
+         *
+         * @return the name
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * The latency of completed calls, successful or not.
+         *
+         * @return the latency histogram
+         */
+        public LatencyHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * The number of calls that have started but not completed yet.
+         *
+         * @return the in-flight count
+         */
+        public long getInFlight() {
+            return inFlight.get();
+        }
+
+        /**
+         * The number of completed calls.
+         *
+         * @return the call count
+         */
+        public long getCalls() {
+            return latency.count();
+        }
+
+        /**
+         * The number of attempts made to the Dex API, including retries. Greater than {@link #getCalls()}
+         * when calls were retried.
+         *
+         * @return the attempt count
+         */
+        public long getAttempts() {
+            return attempts.sum();
+        }
+
+        /**
+         * The number of attempts that were retries of a previously failed attempt.
+         *
+         * @return the retry count
+         */
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        /**
+         * The number of completed calls that did not end with {@link Status.Code#OK}.
+         *
+         * @return the error count
+         */
+        public long getErrors() {
+            return statusCodes.entrySet()
+                    .stream()
+                    .filter(e -> e.getKey() != Status.Code.OK)
+                    .mapToLong(e -> e.getValue().sum())
+                    .sum();
+        }
+
+        /**
+         * The number of completed calls, by status code.
+         *
+         * @return the status code counts
+         */
+        public Map<Status.Code, Long> getStatusCodes() {
+            var counts = new EnumMap<Status.Code, Long>(Status.Code.class);
+            statusCodes.forEach((code, count) -> counts.put(code, count.sum()));
+            return Collections.unmodifiableMap(counts);
+        }
+
+        private void started() {
+            called = true;
+            inFlight.incrementAndGet();
+        }
+
+        private void attempted(int previousAttempts) {
+            attempts.increment();
+            if (previousAttempts > 0) {
+                retries.increment();
+            }
+        }
+
+        private void completed(Status.Code code, long nanos) {
+            inFlight.decrementAndGet();
+            latency.record(nanos);
+            statusCodes.computeIfAbsent(code, c -> new LongAdder()).increment();
+        }
+
+        @Override
+        public String toString() {
+            return "MethodMetrics{" +
+                    "name='" + name + '\'' +
+                    ", latency=" + latency +
+                    ", inFlight=" + inFlight +
+                    ", attempts=" + attempts +
+                    ", statusCodes=" + getStatusCodes() +
+                    '}';
+        }
+    }
+
+    private final class MetricsInterceptor implements ClientInterceptor {
+
+        @Override
+        public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+            var metrics = method(method.getBareMethodName());
+            // A stream is created for every attempt, so the tracer sees retries that the call does not
+            var tracingOptions = callOptions.withStreamTracerFactory(new ClientStreamTracer.Factory() {
+                @Override
+                public ClientStreamTracer newClientStreamTracer(ClientStreamTracer.StreamInfo info, Metadata headers) {
+                    metrics.attempted(info.getPreviousAttempts());
+                    return NOOP_TRACER;
+                }
+            });
+            return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, tracingOptions)) {
+                @Override
+                public void start(Listener<RespT> responseListener, Metadata headers) {
+                    var startTime = System.nanoTime();
+                    metrics.started();
+                    var listener = new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            metrics.completed(status.getCode(), System.nanoTime() - startTime);
+                            super.onClose(status, trailers);
+                        }
+                    };
+                    try {
+                        super.start(listener, headers);
+                    } catch (RuntimeException e) {
+                        metrics.completed(Status.fromThrowable(e).getCode(), System.nanoTime() - startTime);
+                        throw e;
+                    }
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.MethodDescriptor;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tag;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import wf.garnier.testcontainers.dexidp.grpc.DexGrpc;
+
+/**
+ * Binds the {@link GrpcMetrics} of a {@link DexContainer} or a {@link DexServer} to a Micrometer {@link MeterRegistry}.
+ * Requires {@code io.micrometer:micrometer-core} on the classpath, which is not a dependency of this
+ * library.
+ * <p>
+ * For every method of the Dex gRPC API, it registers:
+ * <ul>
+ *     <li>{@code dex.grpc.client.calls}: a timer of completed calls</li>
+ *     <li>{@code dex.grpc.client.calls.active}: a gauge of in-flight calls</li>
+ *     <li>{@code dex.grpc.client.errors}: a counter of calls that did not complete with {@code OK}</li>
+ *     <li>{@code dex.grpc.client.attempts}: a counter of attempts, including retries</li>
+ * </ul>
+ * All meters are tagged with {@code method}. Methods that were not called yet report zero, and are
+ * not listed by {@link GrpcMetrics#getMethods()}.
+ *
+ * @author Daniel Garnier-Moiroux
+ */
+public class GrpcMetricsBinder implements MeterBinder {
+
+    private final GrpcMetrics metrics;
+
+    private final Iterable<Tag> tags;
+
+    /**
+     * Construct a binder for the gRPC metrics of the given container.
+     *
+     * @param container the container
+     */
+    public GrpcMetricsBinder(DexContainer container) {
+        this(container, Tags.empty());
+    }
+
+    /**
+     * Construct a binder for the gRPC metrics of the given container, adding extra tags to every meter.
+     *
+     * @param container the container
+     * @param tags      the extra tags
+     */
+    public GrpcMetricsBinder(DexContainer container, Iterable<Tag> tags) {
+        this(container.getGrpcMetrics(), tags);
+    }
+
+    /**
+     * Construct a binder for the gRPC metrics of the given server.
+     *
+     * @param server the server
+     */
+    public GrpcMetricsBinder(DexServer server) {
+        this(server, Tags.empty());
+    }
+
+    /**
+     * Construct a binder for the gRPC metrics of the given server, adding extra tags to every meter.
+     *
+     * @param server the server
+     * @param tags   the extra tags
+     */
+    public GrpcMetricsBinder(DexServer server, Iterable<Tag> tags) {
+        this(server.getGrpcMetrics(), tags);
+    }
+
+    GrpcMetricsBinder(GrpcMetrics metrics, Iterable<Tag> tags) {
+        this.metrics = metrics;
+        this.tags = tags;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        for (var method : DexGrpc.getServiceDescriptor().getMethods()) {
+            var methodName = MethodDescriptor.extractBareMethodName(method.getFullMethodName());
+            var methodMetrics = metrics.method(methodName);
+            var methodTags = Tags.concat(tags, "method", methodName);
+            FunctionTimer.builder("dex.grpc.client.calls", methodMetrics,
+                            GrpcMetrics.MethodMetrics::getCalls,
+                            m -> m.getLatency().total().toNanos(),
+                            TimeUnit.NANOSECONDS)
+                    .description("Calls from the container to the Dex gRPC API")
+                    .tags(methodTags)
+                    .register(registry);
+            Gauge.builder("dex.grpc.client.calls.active", methodMetrics, GrpcMetrics.MethodMetrics::getInFlight)
+                    .description("In-flight calls from the container to the Dex gRPC API")
+                    .tags(methodTags)
+                    .register(registry);
+            FunctionCounter.builder("dex.grpc.client.errors", methodMetrics, GrpcMetrics.MethodMetrics::getErrors)
+                    .description("Calls to the Dex gRPC API that did not complete with OK")
+                    .tags(methodTags)
+                    .register(registry);
+            FunctionCounter.builder("dex.grpc.client.attempts", methodMetrics, GrpcMetrics.MethodMetrics::getAttempts)
+                    .description("Attempts to call the Dex gRPC API, including retries")
+                    .tags(methodTags)
+                    .register(registry);
+        }
+    }
+}
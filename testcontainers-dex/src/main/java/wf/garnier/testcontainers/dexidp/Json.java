@@ -0,0 +1,329 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Minimal JSON parser, for the few documents served by Dex: token responses, the OpenID configuration
+ * and JWT payloads. Objects are parsed to {@link Map}, arrays to {@link List}, numbers to {@link Long}
+ * or {@link Double}. Avoids pulling a JSON library in the dependencies of this module.
+ */
+final class Json {
+
+    private final String json;
+
+    private int position = 0;
+
+    private Json(String json) {
+        this.json = json;
+    }
+
+    /**
+     * Parse a JSON document, which must be an object.
+     *
+     * @param json the document
+     * @return the parsed object
+     * @throws IllegalArgumentException if the document is not valid JSON, or not an object
+     */
+    @SuppressWarnings("unchecked")
+    static Map<String, Object> parseObject(String json) {
+        var value = parse(json);
+        if (!(value instanceof Map)) {
+            throw new IllegalArgumentException("JSON document is not an object");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    /**
+     * Parse a JSON document.
+     *
+     * @param json the document
+     * @return the parsed value
+     * @throws IllegalArgumentException if the document is not valid JSON
+     */
+    static Object parse(String json) {
+        var parser = new Json(json);
+        var value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position != json.length()) {
+            throw parser.error("Unexpected trailing content");
+        }
+        return value;
+    }
+
+    /**
+     * Copy a parsed value, making nested objects and arrays read-only as well. Order and {@code null}
+     * values are kept.
+     *
+     * @param value the parsed value
+     * @return the read-only copy
+     */
+    @SuppressWarnings("unchecked")
+    static Object readOnly(Object value) {
+        if (value instanceof Map<?, ?> map) {
+            return readOnlyMap((Map<String, Object>) map);
+        }
+        if (value instanceof List<?> list) {
+            return list.stream().map(Json::readOnly).toList();
+        }
+        return value;
+    }
+
+    /**
+     * Copy a parsed object, see {@link #readOnly(Object)}. Unlike {@link Map#copyOf(Map)}, keeps the
+     * order of the document and {@code null} values.
+     *
+     * @param map the parsed object
+     * @return the read-only copy
+     */
+    static Map<String, Object> readOnlyMap(Map<String, Object> map) {
+        var copy = new LinkedHashMap<String, Object>();
+        map.forEach((key, value) -> copy.put(key, readOnly(value)));
+        return Collections.unmodifiableMap(copy);
+    }
+
+    private Object readValue() {
+        skipWhitespace();
+        if (position >= json.length()) {
+            throw error("Unexpected end of document");
+        }
+        var c = json.charAt(position);
+        return switch (c) {
+            case '{' -> readObject();
+            case '[' -> readArray();
+            case '"' -> readString();
+            case 't' -> readLiteral("true", Boolean.TRUE);
+            case 'f' -> readLiteral("false", Boolean.FALSE);
+            case 'n' -> readLiteral("null", null);
+            default -> readNumber();
+        };
+    }
+
+    private Map<String, Object> readObject() {
+        var object = new LinkedHashMap<String, Object>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected object key");
+            }
+            var key = readString();
+            skipWhitespace();
+            expect(':');
+            object.put(key, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect('}');
+                return object;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        var array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            array.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            } else {
+                expect(']');
+                return array;
+            }
+        }
+    }
+
+    private String readString() {
+        position++;
+        var start = position;
+        // Fast path: no escape sequences
+        while (position < json.length()) {
+            var c = json.charAt(position);
+            if (c == '"') {
+                return json.substring(start, position++);
+            }
+            if (c == '\\') {
+                break;
+            }
+            if (c < 0x20) {
+                throw error("Unescaped control character in string");
+            }
+            position++;
+        }
+        var builder = new StringBuilder(json.substring(start, position));
+        while (position < json.length()) {
+            var c = json.charAt(position++);
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c < 0x20) {
+                position--;
+                throw error("Unescaped control character in string");
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            if (position >= json.length()) {
+                break;
+            }
+            var escaped = json.charAt(position++);
+            switch (escaped) {
+                case '"', '\\', '/' -> builder.append(escaped);
+                case 'b' -> builder.append('\b');
+                case 'f' -> builder.append('\f');
+                case 'n' -> builder.append('\n');
+                case 'r' -> builder.append('\r');
+                case 't' -> builder.append('\t');
+                case 'u' -> {
+                    var codeUnit = readHexCodeUnit();
+                    if (Character.isHighSurrogate(codeUnit)) {
+                        // Characters outside the BMP are escaped as a surrogate pair
+                        if (!json.startsWith("\\u", position)) {
+                            throw error("Unpaired surrogate in unicode escape");
+                        }
+                        position += 2;
+                        var lowSurrogate = readHexCodeUnit();
+                        if (!Character.isLowSurrogate(lowSurrogate)) {
+                            throw error("Unpaired surrogate in unicode escape");
+                        }
+                        builder.append(codeUnit).append(lowSurrogate);
+                    } else if (Character.isLowSurrogate(codeUnit)) {
+                        throw error("Unpaired surrogate in unicode escape");
+                    } else {
+                        builder.append(codeUnit);
+                    }
+                }
+                default -> throw error("Invalid escape sequence");
+            }
+        }
+        throw error("Unterminated string");
+    }
+
+    private char readHexCodeUnit() {
+        if (position + 4 > json.length()) {
+            throw error("Invalid unicode escape");
+        }
+        var codeUnit = 0;
+        for (var end = position + 4; position < end; position++) {
+            var c = json.charAt(position);
+            // Character.digit would also accept non-ASCII digits
+            var digit = c < 0x80 ? Character.digit(c, 16) : -1;
+            if (digit < 0) {
+                throw error("Invalid unicode escape");
+            }
+            codeUnit = (codeUnit << 4) | digit;
+        }
+        return (char) codeUnit;
+    }
+
+    private Object readLiteral(String literal, Object value) {
+        if (!json.startsWith(literal, position)) {
+            throw error("Unexpected token");
+        }
+        position += literal.length();
+        return value;
+    }
+
+    /**
+     * Read a number following the JSON grammar: {@code -?(0|[1-9][0-9]*)(\.[0-9]+)?([eE][+-]?[0-9]+)?}.
+     * Integers too large for a {@code long} are read as a {@code double}.
+     */
+    private Number readNumber() {
+        var start = position;
+        consume('-');
+        var integerStart = position;
+        if (readDigits() == 0) {
+            throw error("Invalid number");
+        }
+        if (json.charAt(integerStart) == '0' && position - integerStart > 1) {
+            position = integerStart;
+            throw error("Invalid number, leading zero");
+        }
+        var decimal = false;
+        if (consume('.')) {
+            decimal = true;
+            if (readDigits() == 0) {
+                throw error("Invalid number, expected digits after '.'");
+            }
+        }
+        if (consume('e') || consume('E')) {
+            decimal = true;
+            if (!consume('+')) {
+                consume('-');
+            }
+            if (readDigits() == 0) {
+                throw error("Invalid number, expected digits in exponent");
+            }
+        }
+        var number = json.substring(start, position);
+        if (!decimal) {
+            try {
+                return Long.parseLong(number);
+            } catch (NumberFormatException e) {
+                // Too large for a long, fall through
+            }
+        }
+        return Double.parseDouble(number);
+    }
+
+    private int readDigits() {
+        var start = position;
+        while (position < json.length() && json.charAt(position) >= '0' && json.charAt(position) <= '9') {
+            position++;
+        }
+        return position - start;
+    }
+
+    private boolean consume(char expected) {
+        if (position < json.length() && json.charAt(position) == expected) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private char peek() {
+        if (position >= json.length()) {
+            throw error("Unexpected end of document");
+        }
+        return json.charAt(position);
+    }
+
+    private void expect(char expected) {
+        if (peek() != expected) {
+            throw error("Expected '" + expected + "'");
+        }
+        position++;
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length()) {
+            var c = json.charAt(position);
+            if (c != ' ' && c != '\t' && c != '\n' && c != '\r') {
+                return;
+            }
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at position " + position);
+    }
+}
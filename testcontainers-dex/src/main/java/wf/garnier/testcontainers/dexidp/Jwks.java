@@ -0,0 +1,46 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The JSON Web Key Set of a running Dex IDP, containing the public keys used to verify the signature
+ * of issued tokens.
+ *
+ * @param json      the raw JWKS document, as served by Dex
+ * @param keys      the parsed keys, read-only
+ * @param expiresAt when Dex may rotate its keys, after which the set must be fetched again
+ * @author Daniel Garnier-Moiroux
+ * @see DexContainer#getJwks()
+ * @see <a href="https://datatracker.ietf.org/doc/html/rfc7517#section-5">RFC 7517 - 5. JWK Set Format</a>
+ */
+public record Jwks(String json, List<Map<String, Object>> keys, Instant expiresAt) {
+
+    /**
+     * Copy the keys, so that the JWKS cached by the container cannot be modified by callers. The key
+     * parameters, and their nested values, are read-only as well.
+     */
+    @SuppressWarnings("unchecked")
+    public Jwks {
+        keys = (List<Map<String, Object>>) Json.readOnly(keys);
+    }
+
+    /**
+     * Find a key by its key id.
+     *
+     * @param kid the {@code kid} of the key
+     * @return the key parameters, or {@code null} if there is no key with this id
+     */
+    @Nullable
+    public Map<String, Object> getKey(String kid) {
+        for (var key : keys) {
+            if (kid.equals(key.get("kid"))) {
+                return key;
+            }
+        }
+        return null;
+    }
+}
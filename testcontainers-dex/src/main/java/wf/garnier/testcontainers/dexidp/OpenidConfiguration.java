@@ -0,0 +1,58 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * The OpenID Provider Metadata of a running Dex IDP, as served by the discovery endpoint,
+ * {@code /.well-known/openid-configuration}.
+ *
+ * @param issuer                the {@code issuer}
+ * @param authorizationEndpoint the {@code authorization_endpoint}
+ * @param tokenEndpoint         the {@code token_endpoint}
+ * @param jwksUri               the {@code jwks_uri}
+ * @param userinfoEndpoint      the {@code userinfo_endpoint}
+ * @param grantTypesSupported   the {@code grant_types_supported}
+ * @param scopesSupported       the {@code scopes_supported}
+ * @param metadata              the full metadata document, read-only
+ * @author Daniel Garnier-Moiroux
+ * @see DexContainer#getOpenidConfiguration()
+ * @see <a href="https://openid.net/specs/openid-connect-discovery-1_0.html#ProviderMetadata">OpenID Connect Discovery - Provider Metadata</a>
+ */
+public record OpenidConfiguration(
+        String issuer,
+        String authorizationEndpoint,
+        String tokenEndpoint,
+        String jwksUri,
+        @Nullable String userinfoEndpoint,
+        List<String> grantTypesSupported,
+        List<String> scopesSupported,
+        Map<String, Object> metadata
+) {
+
+    /**
+     * Copy the lists and the metadata document, so that the configuration cached by the container
+     * cannot be modified by callers. Nested objects and arrays of the document are read-only as well.
+     */
+    public OpenidConfiguration {
+        grantTypesSupported = List.copyOf(grantTypesSupported);
+        scopesSupported = List.copyOf(scopesSupported);
+        metadata = Json.readOnlyMap(metadata);
+    }
+
+    @SuppressWarnings("unchecked")
+    static OpenidConfiguration from(Map<String, Object> json) {
+        return new OpenidConfiguration(
+                (String) json.get("issuer"),
+                (String) json.get("authorization_endpoint"),
+                (String) json.get("token_endpoint"),
+                (String) json.get("jwks_uri"),
+                (String) json.get("userinfo_endpoint"),
+                (List<String>) json.getOrDefault("grant_types_supported", List.of()),
+                (List<String>) json.getOrDefault("scopes_supported", List.of()),
+                json
+        );
+    }
+}
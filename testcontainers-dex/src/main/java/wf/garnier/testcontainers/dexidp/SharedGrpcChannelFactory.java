@@ -0,0 +1,216 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import io.grpc.ManagedChannel;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+/**
+ * A {@link GrpcChannelFactory} where every channel runs on the same Netty event loop group and the
+ * same executor, no matter how many containers are running in the JVM. The event loop has a single
+ * thread, and the executor {@value #EXECUTOR_THREADS} threads. The shared threads are daemon threads,
+ * and live for the duration of the JVM.
+ * <p>
+ * Calls to the Dex API have a deadline, and calls failing with {@code UNAVAILABLE} are retried with
+ * exponential backoff and jitter, through the gRPC service config. By default, the deadline is
+ * 10 seconds, and calls are attempted up to 4 times, with backoff starting at 100ms and capped at 2s.
+ * <p>
+ * Instances are immutable, {@code with*} methods return a new factory, still backed by the shared
+ * resources.
+ *
+ * @author Daniel Garnier-Moiroux
+ * @see GrpcChannelFactory#shared()
+ */
+public final class SharedGrpcChannelFactory implements GrpcChannelFactory {
+
+    static final SharedGrpcChannelFactory DEFAULT = new SharedGrpcChannelFactory(
+            null,
+            false,
+            Duration.ofSeconds(10),
+            4,
+            Duration.ofMillis(100),
+            Duration.ofSeconds(2)
+    );
+
+    /**
+     * The number of threads of the shared executor. Callbacks are short, and containers make blocking
+     * calls from the test thread, so a couple of threads are enough for any number of containers.
+     */
+    static final int EXECUTOR_THREADS = 2;
+
+    private static final String DEX_SERVICE_NAME = "api.Dex";
+
+    @Nullable
+    private final Duration keepAliveTime;
+
+    private final boolean directExecutor;
+
+    private final Duration callTimeout;
+
+    private final int maxAttempts;
+
+    private final Duration initialBackoff;
+
+    private final Duration maxBackoff;
+
+    private SharedGrpcChannelFactory(
+            @Nullable Duration keepAliveTime,
+            boolean directExecutor,
+            Duration callTimeout,
+            int maxAttempts,
+            Duration initialBackoff,
+            Duration maxBackoff
+    ) {
+        this.keepAliveTime = keepAliveTime;
+        this.directExecutor = directExecutor;
+        this.callTimeout = callTimeout;
+        this.maxAttempts = maxAttempts;
+        this.initialBackoff = initialBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+
+    /**
+     * Send HTTP/2 keepalive pings on idle channels, so that long-lived containers do not see their
+     * admin connection dropped by intermediaries, such as a Docker proxy.
+     *
+     * @param keepAliveTime the delay between pings, not null
+     * @return a new factory, with keepalive enabled
+     */
+    public SharedGrpcChannelFactory withKeepAlive(Duration keepAliveTime) {
+        if (keepAliveTime == null) {
+            throw new IllegalArgumentException("keepAliveTime must not be null");
+        }
+        return new SharedGrpcChannelFactory(keepAliveTime, directExecutor, callTimeout, maxAttempts, initialBackoff, maxBackoff);
+    }
+
+    /**
+     * Run gRPC callbacks directly on the Netty event loop instead of the shared executor. This avoids a
+     * thread hop per call, and is safe because the container only uses short, non-blocking callbacks.
+     *
+     * @return a new factory, using a direct executor
+     */
+    public SharedGrpcChannelFactory withDirectExecutor() {
+        return new SharedGrpcChannelFactory(keepAliveTime, true, callTimeout, maxAttempts, initialBackoff, maxBackoff);
+    }
+
+    /**
+     * Set the deadline of every call to the Dex API, including retries. When Dex is stalled, calls
+     * fail with {@code DEADLINE_EXCEEDED} instead of blocking the test thread.
+     *
+     * @param callTimeout the deadline, positive
+     * @return a new factory, with the given deadline
+     */
+    public SharedGrpcChannelFactory withCallTimeout(Duration callTimeout) {
+        if (callTimeout == null || callTimeout.isNegative() || callTimeout.isZero()) {
+            throw new IllegalArgumentException("callTimeout must be positive");
+        }
+        return new SharedGrpcChannelFactory(keepAliveTime, directExecutor, callTimeout, maxAttempts, initialBackoff, maxBackoff);
+    }
+
+    /**
+     * Retry calls failing with {@code UNAVAILABLE}. The delay before each retry is random, between zero
+     * and the current backoff, which starts at {@code initialBackoff} and doubles on each attempt, up
+     * to {@code maxBackoff}. gRPC caps the number of attempts to 5.
+     *
+     * @param maxAttempts    the maximum number of attempts, including the original call, at least 2
+     * @param initialBackoff the initial backoff, positive
+     * @param maxBackoff     the maximum backoff, positive
+     * @return a new factory, with the given retry policy
+     */
+    public SharedGrpcChannelFactory withRetry(int maxAttempts, Duration initialBackoff, Duration maxBackoff) {
+        if (maxAttempts < 2) {
+            throw new IllegalArgumentException("maxAttempts must be at least 2");
+        }
+        if (initialBackoff == null || initialBackoff.isNegative() || initialBackoff.isZero()) {
+            throw new IllegalArgumentException("initialBackoff must be positive");
+        }
+        if (maxBackoff == null || maxBackoff.isNegative() || maxBackoff.isZero()) {
+            throw new IllegalArgumentException("maxBackoff must be positive");
+        }
+        return new SharedGrpcChannelFactory(keepAliveTime, directExecutor, callTimeout, maxAttempts, initialBackoff, maxBackoff);
+    }
+
+    /**
+     * Do not retry failed calls.
+     *
+     * @return a new factory, without retries
+     */
+    public SharedGrpcChannelFactory withoutRetry() {
+        return new SharedGrpcChannelFactory(keepAliveTime, directExecutor, callTimeout, 1, initialBackoff, maxBackoff);
+    }
+
+    @Override
+    public ManagedChannel createChannel(String host, int port) {
+        var builder = NettyChannelBuilder.forAddress(host, port)
+                .usePlaintext()
+                .eventLoopGroup(SharedResources.EVENT_LOOP_GROUP)
+                .channelType(NioSocketChannel.class)
+                .defaultServiceConfig(serviceConfig());
+        if (maxAttempts > 1) {
+            builder.enableRetry();
+        } else {
+            builder.disableRetry();
+        }
+        if (directExecutor) {
+            builder.directExecutor();
+        } else {
+            builder.executor(SharedResources.EXECUTOR);
+        }
+        if (keepAliveTime != null) {
+            builder.keepAliveTime(keepAliveTime.toNanos(), TimeUnit.NANOSECONDS)
+                    .keepAliveWithoutCalls(true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * The gRPC service config for the Dex API, with the deadline and the retry policy.
+     *
+     * @see <a href="https://github.com/grpc/grpc/blob/master/doc/service_config.md">gRPC Service Config</a>
+     */
+    private Map<String, Object> serviceConfig() {
+        var methodConfig = new LinkedHashMap<String, Object>();
+        methodConfig.put("name", List.of(Map.of("service", DEX_SERVICE_NAME)));
+        methodConfig.put("timeout", serviceConfigDuration(callTimeout));
+        if (maxAttempts > 1) {
+            // Numbers must be doubles, as if they were parsed from JSON
+            methodConfig.put("retryPolicy", Map.of(
+                    "maxAttempts", (double) maxAttempts,
+                    "initialBackoff", serviceConfigDuration(initialBackoff),
+                    "maxBackoff", serviceConfigDuration(maxBackoff),
+                    "backoffMultiplier", 2.0,
+                    "retryableStatusCodes", List.of("UNAVAILABLE")
+            ));
+        }
+        return Map.of("methodConfig", List.of(methodConfig));
+    }
+
+    private static String serviceConfigDuration(Duration duration) {
+        return "%d.%09ds".formatted(duration.getSeconds(), duration.getNano());
+    }
+
+    /**
+     * Holder for the shared resources, so that threads are only created once a channel is needed.
+     */
+    private static final class SharedResources {
+
+        private static final EventLoopGroup EVENT_LOOP_GROUP =
+                new NioEventLoopGroup(1, new DefaultThreadFactory("dex-grpc-event-loop", true));
+
+        private static final ExecutorService EXECUTOR =
+                Executors.newFixedThreadPool(EXECUTOR_THREADS, new DefaultThreadFactory("dex-grpc-executor", true));
+
+    }
+}
@@ -0,0 +1,176 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import javax.annotation.Nullable;
+
+/**
+ * Caches tokens issued by Dex, by client, user and scopes. Tokens are evicted shortly before the
+ * earliest {@code exp} claim of their access token and id token, see {@link #expiryMargin(Duration)},
+ * and the cache holds at most
+ * {@code maxSize} tokens, evicting the least recently used ones.
+ * <p>
+ * {@link DexContainer} invalidates entries when the clients or users they were issued for change.
+ *
+ * @see DexTokens
+ */
+final class TokenCache {
+
+    /**
+     * Tokens are considered expired this long before their actual expiry, so that a cached token is
+     * still valid by the time it reaches the server under test. Capped for short-lived tokens, see
+     * {@link #expiryMargin(Duration)}.
+     */
+    static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    static final int DEFAULT_MAX_SIZE = 1_000;
+
+    private final Map<Key, Entry> entries;
+
+    private final Clock clock;
+
+    private long generation = 0;
+
+    TokenCache() {
+        this(DEFAULT_MAX_SIZE, Clock.systemUTC());
+    }
+
+    TokenCache(int maxSize, Clock clock) {
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Return the cached token for the given key, or mint a new token if there is no valid cached token.
+     * Minting happens outside the lock, so concurrent misses on the same key may mint several tokens.
+     */
+    DexTokens.TokenResponse get(Key key, Supplier<DexTokens.TokenResponse> mint) {
+        long mintGeneration;
+        synchronized (entries) {
+            var entry = entries.get(key);
+            if (entry != null) {
+                if (entry.validUntil().isAfter(clock.instant())) {
+                    return entry.token();
+                }
+                entries.remove(key);
+            }
+            mintGeneration = generation;
+        }
+        var mintedAt = clock.instant();
+        var token = mint.get();
+        var expiry = expiry(token);
+        var entry = new Entry(token, expiry.minus(expiryMargin(Duration.between(mintedAt, expiry))));
+        synchronized (entries) {
+            // Do not cache tokens that were minted for entities invalidated in the meantime
+            if (mintGeneration == generation) {
+                entries.put(key, entry);
+            }
+        }
+        return token;
+    }
+
+    /**
+     * Drop all tokens issued to the given client.
+     */
+    void invalidateClient(String clientId) {
+        invalidate(key -> key.clientId().equals(clientId));
+    }
+
+    /**
+     * Drop all tokens issued on behalf of the given user.
+     */
+    void invalidateUser(String email) {
+        invalidate(key -> email.equals(key.userEmail()));
+    }
+
+    /**
+     * Drop all tokens.
+     */
+    void invalidateAll() {
+        invalidate(key -> true);
+    }
+
+    int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private void invalidate(Predicate<Key> predicate) {
+        synchronized (entries) {
+            generation++;
+            entries.keySet().removeIf(predicate);
+        }
+    }
+
+    /**
+     * How long before its expiry a token is considered expired: {@link #EXPIRY_MARGIN}, but at most a
+     * quarter of the token lifetime. Otherwise, tokens that live less than the margin, which tests
+     * configure to exercise expiry, would never be cached.
+     *
+     * @param lifetime the lifetime of the token
+     * @return the margin
+     */
+    static Duration expiryMargin(Duration lifetime) {
+        if (lifetime.isNegative()) {
+            return Duration.ZERO;
+        }
+        var quarter = lifetime.dividedBy(4);
+        return quarter.compareTo(EXPIRY_MARGIN) < 0 ? quarter : EXPIRY_MARGIN;
+    }
+
+    /**
+     * The earliest {@code exp} claim of the tokens in the response. Falls back to {@code expires_in}
+     * for tokens that are not JWTs.
+     */
+    static Instant expiry(DexTokens.TokenResponse token) {
+        var expiry = expClaim(token.accessToken(), token.expiresAt());
+        if (token.idToken() != null) {
+            var idTokenExpiry = expClaim(token.idToken(), expiry);
+            expiry = idTokenExpiry.isBefore(expiry) ? idTokenExpiry : expiry;
+        }
+        return expiry;
+    }
+
+    private static Instant expClaim(String jwt, Instant fallback) {
+        try {
+            var exp = DexTokens.TokenResponse.decodeClaims(jwt).get("exp");
+            return exp instanceof Number number ? Instant.ofEpochSecond(number.longValue()) : fallback;
+        } catch (IllegalArgumentException e) {
+            return fallback;
+        }
+    }
+
+    private record Entry(DexTokens.TokenResponse token, Instant validUntil) {
+    }
+
+    /**
+     * Identifies the tokens issued to a client, on behalf of a user if any, with a set of scopes.
+     */
+    record Key(String clientId, @Nullable String userEmail, Set<String> scopes) {
+
+        Key {
+            Objects.requireNonNull(clientId);
+            scopes = Set.copyOf(scopes);
+        }
+
+        static Key of(DexContainer.Client client, @Nullable DexContainer.User user, String... scopes) {
+            return new Key(client.clientId(), user != null ? user.email() : null, new HashSet<>(Arrays.asList(scopes)));
+        }
+    }
+}
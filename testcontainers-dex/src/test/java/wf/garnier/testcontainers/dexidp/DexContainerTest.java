@@ -2,7 +2,13 @@ package wf.garnier.testcontainers.dexidp;
 
 import java.io.IOException;
 import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
 
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import org.jetbrains.annotations.NotNull;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
@@ -112,6 +118,74 @@ public class DexContainerTest {
                 .containsEntry("aud", client.clientId());
     }
 
+    @Test
+    void openidConfiguration() throws IOException, InterruptedException {
+        var configuration = defaultContainer.getOpenidConfiguration();
+        var discovered = Oidc.getConfiguration(defaultContainer.getIssuerUri());
+
+        assertThat(configuration.issuer()).isEqualTo(defaultContainer.getIssuerUri());
+        assertThat(configuration.authorizationEndpoint()).isEqualTo(discovered.authorizationEndpoint());
+        assertThat(configuration.tokenEndpoint()).isEqualTo(discovered.tokenEndpoint());
+        assertThat(configuration.jwksUri()).startsWith(defaultContainer.getIssuerUri());
+        assertThat(configuration.grantTypesSupported()).contains("authorization_code", "password");
+        assertThat(defaultContainer.getOpenidConfiguration()).isSameAs(configuration);
+    }
+
+    @Test
+    void jwks() {
+        var jwks = defaultContainer.getJwks();
+        var token = defaultContainer.getTokens().password(defaultContainer.getClient(), defaultContainer.getUser());
+        var header = new String(Base64.getUrlDecoder().decode(token.idToken().split("\\.")[0]));
+
+        assertThat(jwks.keys()).isNotEmpty();
+        assertThat(jwks.expiresAt()).isInTheFuture();
+        assertThat(jwks.json()).contains("\"keys\"");
+        assertThat(jwks.keys()).anySatisfy(key -> assertThat(header).contains((String) key.get("kid")));
+        assertThat(defaultContainer.getJwks()).isSameAs(jwks);
+    }
+
+    @Test
+    void verifyJwt() {
+        var client = defaultContainer.getClient();
+        var token = defaultContainer.getTokens().password(client, defaultContainer.getUser());
+        var verifier = defaultContainer.getJwtVerifier();
+
+        var claims = verifier.verify(token.idToken(), client.clientId());
+
+        assertThat(claims).containsEntry("iss", defaultContainer.getIssuerUri())
+                .containsEntry("email", defaultContainer.getUser().email());
+        assertThat(verifier.verify(token.accessToken())).containsKey("sub");
+        assertThatExceptionOfType(DexJwtVerifier.JwtVerificationException.class)
+                .isThrownBy(() -> verifier.verify(token.idToken(), "some-other-client"))
+                .withMessageStartingWith("Invalid audience");
+        var parts = token.idToken().split("\\.");
+        var tampered = parts[0] + "." + Base64.getUrlEncoder().withoutPadding().encodeToString("{\"iss\":\"x\"}".getBytes()) + "." + parts[2];
+        assertThatExceptionOfType(DexJwtVerifier.JwtVerificationException.class)
+                .isThrownBy(() -> verifier.verify(tampered))
+                .withMessage("Invalid signature");
+    }
+
+    @Test
+    void dexServer() {
+        try (var server = new DexServer(defaultContainer.getIssuerUri(), defaultContainer.getHost(), defaultContainer.getMappedPort(5557))) {
+            var client = new DexContainer.Client("server-client", "server-secret", "http://localhost:1234/callback");
+            var user = new DexContainer.User("server-user", "server-user@example.com", "server-password");
+            server.registerClient(client);
+            server.registerUser(user);
+
+            var token = server.getTokens().password(client, user);
+
+            assertThat(server.getOpenidConfiguration()).isEqualTo(defaultContainer.getOpenidConfiguration());
+            assertThat(server.getJwtVerifier().verify(token.idToken(), client.clientId()))
+                    .containsEntry("email", user.email());
+
+            server.unregisterUser(user.email());
+            server.unregisterClient(client.clientId());
+            assertThatExceptionOfType(DexTokens.TokenException.class)
+                    .isThrownBy(() -> server.getTokens().password(client, user));
+        }
+    }
+
     @Test
     void issuerUriOnlyAvailableAfterStartup() {
         try (var container = getDefaultContainer()) {
@@ -177,6 +251,43 @@ public class DexContainerTest {
             }
         }
 
+        @Test
+        void registerClientWithCustomChannelFactory() throws IOException, InterruptedException {
+            var testClient = new DexContainer.Client("test-client", "test-secret", "https://example.com/authorized");
+            var channelFactory = GrpcChannelFactory.shared()
+                    .withKeepAlive(Duration.ofSeconds(30))
+                    .withDirectExecutor();
+            try (var container = getDefaultContainer().withGrpcChannelFactory(channelFactory)) {
+                container.start();
+                container.withClient(testClient);
+
+                var configuration = Oidc.getConfiguration(container.getIssuerUri());
+                assertThatNoException()
+                        .isThrownBy(() -> Oidc.obtainToken(configuration, testClient, container.getUser()));
+            }
+        }
+
+        @Test
+        void grpcCallsHaveDeadline() {
+            var testClient = new DexContainer.Client("test-client", "test-secret", "https://example.com/authorized");
+            var channelFactory = GrpcChannelFactory.shared()
+                    .withCallTimeout(Duration.ofMillis(500))
+                    .withoutRetry();
+            try (var container = getDefaultContainer().withGrpcChannelFactory(channelFactory)) {
+                container.start();
+                container.getDockerClient().pauseContainerCmd(container.getContainerId()).exec();
+                try {
+                    assertThatExceptionOfType(StatusRuntimeException.class)
+                            .isThrownBy(() -> container.withClient(testClient))
+                            .satisfies(e -> assertThat(e.getStatus().getCode()).isEqualTo(Status.Code.DEADLINE_EXCEEDED));
+                } finally {
+                    container.getDockerClient().unpauseContainerCmd(container.getContainerId()).exec();
+                }
+                assertThat(container.getGrpcMetrics().getMethod("DeleteClient").getStatusCodes())
+                        .containsKey(Status.Code.DEADLINE_EXCEEDED);
+            }
+        }
+
         @Test
         @DisplayName("Registering a client with the same ID updates the existing client")
         void registerClientWithSameId() throws IOException, InterruptedException {
@@ -215,6 +326,20 @@ public class DexContainerTest {
                     .isThrownBy(() -> Oidc.obtainToken(configuration, secondClient, user));
         }
 
+        @Test
+        void recordsGrpcMetrics() {
+            var metrics = preconfiguredContainer.getGrpcMetrics();
+
+            var createClient = metrics.getMethod("CreateClient");
+            assertThat(createClient).isNotNull();
+            assertThat(createClient.getCalls()).isPositive();
+            assertThat(createClient.getInFlight()).isZero();
+            assertThat(createClient.getStatusCodes()).containsKey(Status.Code.OK);
+            assertThat(createClient.getLatency().max()).isPositive();
+            assertThat(createClient.getAttempts()).isGreaterThanOrEqualTo(createClient.getCalls());
+            assertThat(metrics.getMethods()).containsKeys("CreateClient", "DeleteClient", "CreatePassword", "DeletePassword");
+        }
+
         @Test
         void removeClientBeforeStart() {
             var testClient = new DexContainer.Client("test-client", "test-secret", "https://example.com/authorized");
@@ -323,6 +448,25 @@ public class DexContainerTest {
                     .isThrownBy(() -> Oidc.obtainToken(configuration, client, alice));
         }
 
+        @Test
+        void cachedTokensInvalidatedOnUpdate() {
+            var client = preconfiguredContainer.getClient();
+            var tokens = preconfiguredContainer.getTokens();
+            var token = tokens.getToken(client, alice);
+            assertThat(tokens.getToken(client, alice)).isSameAs(token);
+            assertThat(tokens.getToken(client, bob)).isNotSameAs(token);
+
+            var updatedAlice = new DexContainer.User(alice.username(), alice.email(), "new-password");
+            preconfiguredContainer.withUser(updatedAlice);
+
+            var updatedToken = tokens.getToken(client, updatedAlice);
+            assertThat(updatedToken).isNotSameAs(token);
+            assertThat(updatedToken.idTokenClaims()).containsEntry("email", alice.email());
+            preconfiguredContainer.removeUser(alice.email());
+            assertThatExceptionOfType(DexTokens.TokenException.class)
+                    .isThrownBy(() -> tokens.getToken(client, updatedAlice));
+        }
+
         @Test
         void removeUser() throws IOException, InterruptedException {
             var configuration = Oidc.getConfiguration(preconfiguredContainer.getIssuerUri());
@@ -364,6 +508,323 @@ public class DexContainerTest {
         }
     }
 
+    @Nested
+    class Tokens {
+
+        @Test
+        void authorizationCode() {
+            var client = defaultContainer.getClient();
+            var user = defaultContainer.getUser();
+
+            var token = defaultContainer.getTokens().authorizationCode(client, user);
+
+            assertThat(token.tokenType()).isEqualToIgnoringCase("bearer");
+            assertThat(token.expiresAt()).isInTheFuture();
+            assertThat(token.idTokenClaims())
+                    .containsEntry("iss", defaultContainer.getIssuerUri())
+                    .containsEntry("aud", client.clientId())
+                    .containsEntry("name", user.username())
+                    .containsEntry("email", user.email());
+            assertThat(token.accessTokenClaims())
+                    .containsEntry("iss", defaultContainer.getIssuerUri())
+                    .containsEntry("aud", client.clientId());
+        }
+
+        @Test
+        void authorizationCodeWithScopes() {
+            var token = defaultContainer.getTokens()
+                    .authorizationCode(defaultContainer.getClient(), defaultContainer.getUser(), "openid", "email");
+
+            assertThat(token.idTokenClaims())
+                    .containsEntry("email", defaultContainer.getUser().email())
+                    .doesNotContainKey("name");
+        }
+
+        @Test
+        void authorizationCodeWrongPassword() {
+            var user = defaultContainer.getUser();
+            var wrongPassword = new DexContainer.User(user.username(), user.email(), "wrong-password");
+
+            assertThatExceptionOfType(DexTokens.TokenException.class)
+                    .isThrownBy(() -> defaultContainer.getTokens().authorizationCode(defaultContainer.getClient(), wrongPassword));
+        }
+
+        @Test
+        void password() {
+            var client = defaultContainer.getClient();
+            var user = defaultContainer.getUser();
+
+            var token = defaultContainer.getTokens().password(client, user);
+
+            assertThat(token.idTokenClaims())
+                    .containsEntry("iss", defaultContainer.getIssuerUri())
+                    .containsEntry("aud", client.clientId())
+                    .containsEntry("name", user.username())
+                    .containsEntry("email", user.email());
+        }
+
+        @Test
+        void passwordWrongPassword() {
+            var user = defaultContainer.getUser();
+            var wrongPassword = new DexContainer.User(user.username(), user.email(), "wrong-password");
+
+            assertThatExceptionOfType(DexTokens.TokenException.class)
+                    .isThrownBy(() -> defaultContainer.getTokens().password(defaultContainer.getClient(), wrongPassword));
+        }
+
+        @Test
+        void clientCredentials() {
+            var client = defaultContainer.getClient();
+
+            var token = defaultContainer.getTokens().clientCredentials(client);
+
+            assertThat(token.accessTokenClaims())
+                    .containsEntry("iss", defaultContainer.getIssuerUri())
+                    .containsEntry("aud", client.clientId());
+        }
+
+        @Test
+        void clientCredentialsCached() {
+            var client = defaultContainer.getClient();
+
+            var first = defaultContainer.getTokens().getToken(client);
+            var second = defaultContainer.getTokens().getToken(client);
+
+            assertThat(second).isSameAs(first);
+        }
+
+        @Test
+        void tokenPool() {
+            var client = defaultContainer.getClient();
+            var user = defaultContainer.getUser();
+
+            try (var pool = defaultContainer.getTokens().newPool(client, List.of(user), 3)) {
+                var first = pool.acquire();
+                var second = pool.acquire(user);
+                var third = pool.acquire();
+                var fourth = pool.acquire();
+
+                assertThat(first).isNotNull();
+                assertThat(first.idTokenClaims()).containsEntry("email", user.email());
+                assertThat(second).isNotSameAs(first);
+                assertThat(third).isNotSameAs(first).isNotSameAs(second);
+                assertThat(fourth).isSameAs(first);
+                assertThat(pool.getHits()).isEqualTo(4);
+                assertThat(pool.getMisses()).isZero();
+            }
+        }
+
+        @Test
+        void clientTokenPool() {
+            try (var pool = defaultContainer.getTokens().newClientPool(defaultContainer.getClient(), 2)) {
+                assertThat(pool.acquire()).isNotNull();
+                assertThat(pool.getHits()).isEqualTo(1);
+            }
+        }
+
+        @Test
+        void refreshSession() {
+            try (var container = getDefaultContainer().withIdTokensExpiry(Duration.ofSeconds(4))) {
+                container.start();
+                var clock = new MutableClock(Instant.now());
+                var session = container.getTokens().newSession(container.getClient(), container.getUser(), clock);
+                var initial = session.getToken();
+                var initialRefreshToken = session.getRefreshToken();
+
+                assertThat(initialRefreshToken).isNotBlank();
+                assertThat(session.getToken()).isSameAs(initial);
+
+                var refreshed = session.refresh();
+                assertThat(refreshed.accessToken()).isNotEqualTo(initial.accessToken());
+                assertThat(session.getRefreshToken()).isNotEqualTo(initialRefreshToken);
+                assertThat(session.getRotations()).isEqualTo(1);
+
+                // Tokens are refreshed a quarter of their lifetime before they expire
+                clock.advance(Duration.ofSeconds(2));
+                assertThat(session.getToken()).isSameAs(refreshed);
+                clock.advance(Duration.ofSeconds(4));
+                var proactivelyRefreshed = session.getToken();
+                assertThat(proactivelyRefreshed).isNotSameAs(refreshed);
+                assertThat(session.getRefreshes()).isEqualTo(2);
+                assertThat(session.getRefreshLatency().count()).isEqualTo(2);
+                assertThat(container.getJwtVerifier().verify(proactivelyRefreshed.idToken())).containsKey("email");
+            }
+        }
+
+        @Test
+        void tokenExpiry() {
+            try (var container = getDefaultContainer()
+                    .withIdTokensExpiry(Duration.ofMinutes(2))
+                    .withSigningKeysExpiry(Duration.ofHours(1))
+                    .withAuthRequestsExpiry(Duration.ofMillis(90_500))
+                    .withRefreshTokensExpiry(Duration.ofMinutes(10), Duration.ofHours(1))
+                    .withRefreshTokensReuseInterval(Duration.ofSeconds(1))
+                    .withoutRefreshTokensRotation()) {
+                container.start();
+                var token = container.getTokens().authorizationCode(container.getClient(), container.getUser());
+                var idTokenClaims = token.idTokenClaims();
+                var accessTokenClaims = token.accessTokenClaims();
+
+                assertThat(container.configuration()).contains(
+                        "  idTokens: 120s",
+                        "  signingKeys: 3600s",
+                        "  authRequests: 90500ms",
+                        "    disableRotation: true",
+                        "    reuseInterval: 1s",
+                        "    validIfNotUsedFor: 600s",
+                        "    absoluteLifetime: 3600s"
+                );
+                assertThat(((Number) idTokenClaims.get("exp")).longValue() - ((Number) idTokenClaims.get("iat")).longValue())
+                        .isEqualTo(120);
+                assertThat(((Number) accessTokenClaims.get("exp")).longValue() - ((Number) accessTokenClaims.get("iat")).longValue())
+                        .isEqualTo(120);
+
+                var session = container.getTokens().newSession(container.getClient(), container.getUser());
+                var refreshToken = session.getRefreshToken();
+                session.refresh();
+                assertThat(session.getRefreshToken()).isEqualTo(refreshToken);
+                assertThat(session.getRotations()).isZero();
+            }
+        }
+
+        @Test
+        void tokenExpiryMustBePositive() {
+            try (var container = getDefaultContainer()) {
+                assertThatExceptionOfType(IllegalArgumentException.class)
+                        .isThrownBy(() -> container.withIdTokensExpiry(Duration.ZERO))
+                        .withMessage("idTokensExpiry must be a positive duration");
+                assertThatExceptionOfType(IllegalArgumentException.class)
+                        .isThrownBy(() -> container.withSigningKeysExpiry(Duration.ofMillis(-1)))
+                        .withMessage("signingKeysExpiry must be a positive duration");
+            }
+        }
+
+        @Test
+        void tokenExpiryMustBeWholeMilliseconds() {
+            try (var container = getDefaultContainer()) {
+                assertThatExceptionOfType(IllegalArgumentException.class)
+                        .isThrownBy(() -> container.withAuthRequestsExpiry(Duration.ofNanos(500_000)))
+                        .withMessage("authRequestsExpiry must be a whole number of milliseconds, got PT0.0005S");
+                assertThatExceptionOfType(IllegalArgumentException.class)
+                        .isThrownBy(() -> container.withRefreshTokensReuseInterval(Duration.ofNanos(1_500_000)))
+                        .withMessage("reuseInterval must be a whole number of milliseconds, got PT0.0015S");
+                assertThatNoException().isThrownBy(() -> container.withIdTokensExpiry(Duration.ofMillis(1)));
+            }
+        }
+
+        @Test
+        void goDuration() {
+            assertThat(DexContainer.goDuration(Duration.ofMillis(1))).isEqualTo("1ms");
+            assertThat(DexContainer.goDuration(Duration.ofMillis(999))).isEqualTo("999ms");
+            assertThat(DexContainer.goDuration(Duration.ofSeconds(1))).isEqualTo("1s");
+            assertThat(DexContainer.goDuration(Duration.ofMillis(1_500))).isEqualTo("1500ms");
+            assertThat(DexContainer.goDuration(Duration.ofMinutes(2))).isEqualTo("120s");
+            assertThat(DexContainer.goDuration(Duration.ofDays(90))).isEqualTo("7776000s");
+        }
+
+        @Test
+        void loadGenerator() {
+            var report = new DexLoadGenerator(defaultContainer, defaultContainer.getClient(), List.of(defaultContainer.getUser()))
+                    .withArrivalRate(20)
+                    .withDuration(Duration.ofSeconds(1))
+                    .run();
+
+            assertThat(report.started()).isEqualTo(20);
+            assertThat(report.failed()).isZero();
+            assertThat(report.completed()).isEqualTo(20);
+            assertThat(report.throughput()).isPositive();
+            for (var step : DexLoadGenerator.Step.values()) {
+                assertThat(report.getLatency(step).count()).isEqualTo(20);
+                assertThat(report.getLatency(step).percentile(99)).isPositive();
+            }
+            assertThat(report.toString()).contains("authorize", "login", "approval", "token");
+        }
+
+        @Test
+        void tokensOnlyAvailableAfterStartup() {
+            try (var container = getDefaultContainer()) {
+                assertThatExceptionOfType(IllegalStateException.class)
+                        .isThrownBy(container::getTokens)
+                        .withMessage("Tokens can only be obtained after the container has started.");
+            }
+        }
+    }
+
+    @Nested
+    class Snapshots {
+
+        @Test
+        void restoreSnapshot() throws IOException, InterruptedException, URISyntaxException {
+            var testClient = new DexContainer.Client("test-client", "test-secret", "https://example.com/authorized");
+            var testUser = new DexContainer.User("test-user", "test@example.com", "xxxx");
+            try (var container = getDefaultContainer()) {
+                container.start();
+                var defaultClient = container.getClient();
+                var defaultUser = container.getUser();
+                var snapshot = container.snapshot();
+                container.withClient(testClient).withUser(testUser);
+
+                container.restore(snapshot);
+
+                var configuration = Oidc.getConfiguration(container.getIssuerUri());
+                assertThat(container.getClients()).containsExactly(defaultClient);
+                assertThat(container.getUsers()).containsExactly(defaultUser);
+                assertThatNoException()
+                        .isThrownBy(() -> Oidc.obtainToken(configuration, defaultClient, defaultUser));
+                assertThatExceptionOfType(Oidc.OidcException.class)
+                        .isThrownBy(() -> Oidc.obtainToken(configuration, defaultClient, testUser));
+                assertThatExceptionOfType(Oidc.OidcException.class)
+                        .isThrownBy(() -> Oidc.obtainToken(configuration, testClient, defaultUser));
+            }
+        }
+
+        @Test
+        void snapshotKeepsRuntimeChanges() throws IOException, InterruptedException, URISyntaxException {
+            var testClient = new DexContainer.Client("test-client", "test-secret", "https://example.com/authorized");
+            var testUser = new DexContainer.User("test-user", "test@example.com", "xxxx");
+            try (var container = getDefaultContainer()) {
+                container.start();
+                // Registered through gRPC, written to the storage while Dex is running
+                container.withClient(testClient).withUser(testUser);
+                var snapshot = container.snapshot();
+                container.removeClient(testClient.clientId());
+                container.removeUser(testUser.email());
+
+                container.restore(snapshot);
+
+                var configuration = Oidc.getConfiguration(container.getIssuerUri());
+                assertThat(snapshot.storageSize()).isPositive();
+                assertThat(container.getClients()).contains(testClient);
+                assertThatNoException()
+                        .isThrownBy(() -> Oidc.obtainToken(configuration, testClient, testUser));
+            }
+        }
+
+        @Test
+        void registerAfterRestore() throws IOException, InterruptedException, URISyntaxException {
+            var testUser = new DexContainer.User("test-user", "test@example.com", "xxxx");
+            try (var container = getDefaultContainer()) {
+                container.start();
+                container.restore(container.snapshot());
+
+                container.withUser(testUser);
+
+                var configuration = Oidc.getConfiguration(container.getIssuerUri());
+                var idToken = Oidc.obtainToken(configuration, container.getClient(), testUser).idTokenClaims();
+                assertThat(idToken).containsEntry("email", "test@example.com");
+            }
+        }
+
+        @Test
+        void snapshotOnlyAvailableAfterStartup() {
+            try (var container = getDefaultContainer()) {
+                assertThatExceptionOfType(IllegalStateException.class)
+                        .isThrownBy(container::snapshot)
+                        .withMessage("Snapshots can only be taken after the container has started.");
+            }
+        }
+    }
+
     @NotNull
     private static DexContainer getDefaultContainer() {
         return new DexContainer(DexContainer.DEFAULT_IMAGE_NAME.withTag(DexContainer.DEFAULT_TAG));
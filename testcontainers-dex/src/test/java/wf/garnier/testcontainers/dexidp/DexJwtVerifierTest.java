@@ -0,0 +1,156 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.security.interfaces.RSAPublicKey;
+import java.time.Instant;
+import java.util.Base64;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class DexJwtVerifierTest {
+
+    private HttpServer server;
+
+    private String issuer;
+
+    private volatile String jwks;
+
+    private DexMetadata metadata;
+
+    private DexJwtVerifier verifier;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        issuer = "http://127.0.0.1:%s/dex".formatted(server.getAddress().getPort());
+        server.createContext("/dex/.well-known/openid-configuration", exchange -> respond(exchange, """
+                {"issuer": "%1$s", "authorization_endpoint": "%1$s/auth", "token_endpoint": "%1$s/token", "jwks_uri": "%1$s/keys"}
+                """.formatted(issuer)));
+        server.createContext("/dex/keys", exchange -> respond(exchange, jwks));
+        server.start();
+        metadata = new DexMetadata(issuer);
+        verifier = new DexJwtVerifier(issuer, metadata);
+    }
+
+    @AfterEach
+    void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    void verify() throws GeneralSecurityException {
+        var keyPair = generateKeyPair();
+        jwks = jwks("key", keyPair);
+
+        var claims = verifier.verify(jwt("key", keyPair, issuer));
+
+        assertThat(claims).containsEntry("sub", "alice");
+    }
+
+    @Test
+    void invalidIssuer() throws GeneralSecurityException {
+        var keyPair = generateKeyPair();
+        jwks = jwks("key", keyPair);
+
+        assertThatExceptionOfType(DexJwtVerifier.JwtVerificationException.class)
+                .isThrownBy(() -> verifier.verify(jwt("key", keyPair, "http://example.com/dex")))
+                .withMessage("Invalid issuer: http://example.com/dex");
+    }
+
+    @Test
+    void keysDroppedWhenJwksInvalidated() throws GeneralSecurityException {
+        var previousKeyPair = generateKeyPair();
+        jwks = jwks("key", previousKeyPair);
+        var previousToken = jwt("key", previousKeyPair, issuer);
+        verifier.verify(previousToken);
+
+        // Same kid, different key, e.g. after restoring a snapshot
+        var keyPair = generateKeyPair();
+        jwks = jwks("key", keyPair);
+        metadata.invalidateJwks();
+
+        assertThat(verifier.verify(jwt("key", keyPair, issuer))).containsEntry("sub", "alice");
+        assertThatExceptionOfType(DexJwtVerifier.JwtVerificationException.class)
+                .isThrownBy(() -> verifier.verify(previousToken))
+                .withMessage("Invalid signature");
+    }
+
+    @Test
+    void keysDroppedWhenJwksRefreshed() throws GeneralSecurityException {
+        var previousKeyPair = generateKeyPair();
+        jwks = jwks("key", previousKeyPair);
+        var previousToken = jwt("key", previousKeyPair, issuer);
+        verifier.verify(previousToken);
+
+        var keyPair = generateKeyPair();
+        jwks = jwks("key", keyPair);
+        metadata.refreshJwks(metadata.jwks());
+
+        assertThatExceptionOfType(DexJwtVerifier.JwtVerificationException.class)
+                .isThrownBy(() -> verifier.verify(previousToken))
+                .withMessage("Invalid signature");
+    }
+
+    private static void respond(HttpExchange exchange, String body) throws IOException {
+        var bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (var responseBody = exchange.getResponseBody()) {
+            responseBody.write(bytes);
+        }
+    }
+
+    private static KeyPair generateKeyPair() throws GeneralSecurityException {
+        var generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(2048);
+        return generator.generateKeyPair();
+    }
+
+    private static String jwks(String kid, KeyPair keyPair) {
+        var publicKey = (RSAPublicKey) keyPair.getPublic();
+        return """
+                {"keys": [{"kty": "RSA", "alg": "RS256", "use": "sig", "kid": "%s", "n": "%s", "e": "%s"}]}
+                """.formatted(kid, base64(unsigned(publicKey.getModulus().toByteArray())),
+                base64(unsigned(publicKey.getPublicExponent().toByteArray())));
+    }
+
+    private static String jwt(String kid, KeyPair keyPair, String issuer) throws GeneralSecurityException {
+        var header = base64("{\"alg\":\"RS256\",\"kid\":\"%s\"}".formatted(kid).getBytes(StandardCharsets.UTF_8));
+        var payload = base64("{\"iss\":\"%s\",\"sub\":\"alice\",\"exp\":%s}"
+                .formatted(issuer, Instant.now().plusSeconds(60).getEpochSecond())
+                .getBytes(StandardCharsets.UTF_8));
+        var signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keyPair.getPrivate());
+        signature.update((header + "." + payload).getBytes(StandardCharsets.US_ASCII));
+        return header + "." + payload + "." + base64(signature.sign());
+    }
+
+    private static byte[] unsigned(byte[] bytes) {
+        if (bytes.length > 1 && bytes[0] == 0) {
+            var unsigned = new byte[bytes.length - 1];
+            System.arraycopy(bytes, 1, unsigned, 0, unsigned.length);
+            return unsigned;
+        }
+        return bytes;
+    }
+
+    private static String base64(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+}
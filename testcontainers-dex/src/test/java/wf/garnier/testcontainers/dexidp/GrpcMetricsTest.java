@@ -0,0 +1,63 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import wf.garnier.testcontainers.dexidp.grpc.DexGrpc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class GrpcMetricsTest {
+
+    private final GrpcMetrics metrics = new GrpcMetrics();
+
+    private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+    @Test
+    void bindingDoesNotListMethods() {
+        new GrpcMetricsBinder(metrics, Tags.empty()).bindTo(registry);
+
+        assertThat(metrics.getMethod("CreateClient")).isNull();
+        assertThat(metrics.getMethods()).isEmpty();
+        assertThat(registry.get("dex.grpc.client.calls").tag("method", "CreateClient").functionTimer().count())
+                .isZero();
+    }
+
+    @Test
+    void listsCalledMethods() throws IOException {
+        new GrpcMetricsBinder(metrics, Tags.empty()).bindTo(registry);
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            // Nothing listens on this port once the socket is closed, so calls fail fast with UNAVAILABLE
+            port = socket.getLocalPort();
+        }
+        var channel = GrpcChannelFactory.shared().withoutRetry().createChannel("localhost", port);
+        try {
+            var stub = DexGrpc.newBlockingStub(channel).withInterceptors(metrics.interceptor());
+
+            assertThatExceptionOfType(StatusRuntimeException.class)
+                    .isThrownBy(() -> stub.deleteClient(DexServer.deleteClientRequest("client")));
+        } finally {
+            channel.shutdownNow();
+        }
+
+        assertThat(metrics.getMethods()).containsOnlyKeys("DeleteClient");
+        assertThat(metrics.getMethod("DeleteClient").getStatusCodes()).containsEntry(Status.Code.UNAVAILABLE, 1L);
+        assertThat(metrics.getMethod("CreateClient")).isNull();
+        FunctionTimer calls = registry.get("dex.grpc.client.calls").tag("method", "DeleteClient").functionTimer();
+        assertThat(calls.count()).isEqualTo(1);
+        FunctionCounter errors = registry.get("dex.grpc.client.errors").tag("method", "DeleteClient").functionCounter();
+        assertThat(errors.count()).isEqualTo(1);
+    }
+}
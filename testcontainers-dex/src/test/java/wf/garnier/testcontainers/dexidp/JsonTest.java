@@ -0,0 +1,245 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatIllegalArgumentException;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class JsonTest {
+
+    @Test
+    void object() {
+        var object = Json.parseObject("""
+                {
+                  "issuer": "http://localhost:5556/dex",
+                  "expires_in": 86399,
+                  "scopes_supported": ["openid", "email"],
+                  "claims": {"email_verified": true, "groups": null}
+                }
+                """);
+
+        assertThat(object).containsExactly(
+                Map.entry("issuer", "http://localhost:5556/dex"),
+                Map.entry("expires_in", 86399L),
+                Map.entry("scopes_supported", List.of("openid", "email")),
+                Map.entry("claims", object.get("claims"))
+        );
+        assertThat((Map<?, ?>) object.get("claims"))
+                .containsEntry("email_verified", true)
+                .containsEntry("groups", null);
+    }
+
+    @Test
+    void parseObjectRequiresObject() {
+        assertThatIllegalArgumentException()
+                .isThrownBy(() -> Json.parseObject("[]"))
+                .withMessage("JSON document is not an object");
+    }
+
+    @Nested
+    class Strings {
+
+        @Test
+        void escapes() {
+            assertThat(Json.parse("\"a\\\"b\\\\c\\/d\\be\\ff\\ng\\rh\\ti\"")).isEqualTo("a\"b\\c/d\be\ff\ng\rh\ti");
+        }
+
+        @Test
+        void unicodeEscape() {
+            assertThat(Json.parse("\"caf\\u00e9 \\u00E9\"")).isEqualTo("caf\u00e9 \u00e9");
+        }
+
+        @Test
+        void surrogatePair() {
+            assertThat(Json.parse("\"\\ud83d\\ude00\"")).isEqualTo("\ud83d\ude00");
+        }
+
+        @Test
+        void rawUnicode() {
+            assertThat(Json.parse("\"caf\u00e9 \ud83d\ude00\"")).isEqualTo("caf\u00e9 \ud83d\ude00");
+        }
+
+        @ParameterizedTest
+        @ValueSource(strings = {
+                "\"\\ud83d\"",
+                "\"\\ud83dx\"",
+                "\"\\ud83d\\u0041\"",
+                "\"\\ude00\"",
+        })
+        void unpairedSurrogate(String json) {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Json.parse(json))
+                    .withMessageStartingWith("Unpaired surrogate in unicode escape");
+        }
+
+        @ParameterizedTest
+        @ValueSource(strings = {"\"\\u00\"", "\"\\u00zz\"", "\"\\u+0e9\"", "\"\\u\u0660\u0660e9\""})
+        void invalidUnicodeEscape(String json) {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Json.parse(json))
+                    .withMessageStartingWith("Invalid unicode escape");
+        }
+
+        @Test
+        void invalidEscape() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Json.parse("\"\\x\""))
+                    .withMessage("Invalid escape sequence at position 3");
+        }
+
+        @Test
+        void controlCharacter() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Json.parse("\"line\nbreak\""))
+                    .withMessage("Unescaped control character in string at position 5");
+        }
+
+        @ParameterizedTest
+        @ValueSource(strings = {"\"abc", "\"abc\\", "\"a\\nbc"})
+        void unterminated(String json) {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Json.parse(json))
+                    .withMessageStartingWith("Unterminated string");
+        }
+    }
+
+    @Nested
+    class Numbers {
+
+        @Test
+        void integers() {
+            assertThat(Json.parse("0")).isEqualTo(0L);
+            assertThat(Json.parse("-0")).isEqualTo(0L);
+            assertThat(Json.parse("42")).isEqualTo(42L);
+            assertThat(Json.parse("-42")).isEqualTo(-42L);
+            assertThat(Json.parse("9223372036854775807")).isEqualTo(Long.MAX_VALUE);
+            assertThat(Json.parse("-9223372036854775808")).isEqualTo(Long.MIN_VALUE);
+        }
+
+        @Test
+        void longOverflow() {
+            assertThat(Json.parse("9223372036854775808")).isEqualTo(9.223372036854775808E18);
+            assertThat(Json.parse("-9223372036854775809")).isEqualTo(-9.223372036854775809E18);
+        }
+
+        @Test
+        void decimals() {
+            assertThat(Json.parse("1.5")).isEqualTo(1.5);
+            assertThat(Json.parse("-0.25")).isEqualTo(-0.25);
+        }
+
+        @Test
+        void exponents() {
+            assertThat(Json.parse("1e3")).isEqualTo(1000.0);
+            assertThat(Json.parse("1E+3")).isEqualTo(1000.0);
+            assertThat(Json.parse("25e-2")).isEqualTo(0.25);
+            assertThat(Json.parse("-1.5e2")).isEqualTo(-150.0);
+        }
+
+        @ParameterizedTest
+        @ValueSource(strings = {"1-2+3", "-", "+1", "01", "-01", "1.", ".5", "1e", "1e+", "1.e3", "--1", "1x"})
+        void malformed(String json) {
+            assertThatIllegalArgumentException().isThrownBy(() -> Json.parse(json));
+        }
+
+        @Test
+        void numberInContainer() {
+            assertThat(Json.parse("[1,-2.5e1,3]")).isEqualTo(List.of(1L, -25.0, 3L));
+        }
+    }
+
+    @Nested
+    class Containers {
+
+        @Test
+        void emptyObject() {
+            assertThat(Json.parse("{}")).isEqualTo(Map.of());
+            assertThat(Json.parse(" { } ")).isEqualTo(Map.of());
+        }
+
+        @Test
+        void emptyArray() {
+            assertThat(Json.parse("[]")).isEqualTo(List.of());
+            assertThat(Json.parse(" [ ] ")).isEqualTo(List.of());
+        }
+
+        @Test
+        void nesting() {
+            var value = Json.parse("{\"a\":[{\"b\":[[],{}]},[1,[2,[3]]]],\"c\":{\"d\":{\"e\":\"f\"}}}");
+
+            assertThat(value).isEqualTo(Map.of(
+                    "a", List.of(
+                            Map.of("b", List.of(List.of(), Map.of())),
+                            List.of(1L, List.of(2L, List.of(3L)))
+                    ),
+                    "c", Map.of("d", Map.of("e", "f"))
+            ));
+        }
+
+        @Test
+        void keepsKeyOrder() {
+            assertThat(Json.parseObject("{\"z\":1,\"a\":2,\"m\":3}")).containsExactly(
+                    Map.entry("z", 1L),
+                    Map.entry("a", 2L),
+                    Map.entry("m", 3L)
+            );
+        }
+
+        @Test
+        void whitespace() {
+            assertThat(Json.parse(" \t\r\n[ 1 ,\n\t2 ] \n")).isEqualTo(List.of(1L, 2L));
+        }
+    }
+
+    @Nested
+    class Malformed {
+
+        @ParameterizedTest
+        @ValueSource(strings = {"{} {}", "[]]", "\"a\" b", "1 2", "truex", "null,"})
+        void trailingContent(String json) {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Json.parse(json))
+                    .withMessageStartingWith("Unexpected trailing content");
+        }
+
+        @ParameterizedTest
+        @ValueSource(strings = {
+                "",
+                " ",
+                "{",
+                "[",
+                "{\"a\"",
+                "{\"a\":",
+                "{\"a\":1",
+                "{\"a\":1,",
+                "[1,",
+                "{a:1}",
+                "{\"a\" 1}",
+                "{\"a\":1,}",
+                "[1,]",
+                "[1 2]",
+                "tru",
+                "nul",
+                "\u00a01",
+        })
+        void invalid(String json) {
+            assertThatIllegalArgumentException().isThrownBy(() -> Json.parse(json));
+        }
+
+        @Test
+        void errorPosition() {
+            assertThatIllegalArgumentException()
+                    .isThrownBy(() -> Json.parse("{\"a\": [1, 2 }"))
+                    .withMessage("Expected ']' at position 12");
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class JwksTest {
+
+    private static final String DOCUMENT = """
+            {
+              "keys": [
+                {"use": "sig", "kty": "RSA", "kid": "key-1", "alg": "RS256", "n": "AQAB", "e": "AQAB", "x5c": null},
+                {"use": "sig", "kty": "RSA", "kid": "key-2", "alg": "RS256", "n": "AQAB", "e": "AQAB", "key_ops": ["verify"]}
+              ]
+            }
+            """;
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void keysAreReadOnly() {
+        var jwks = jwks(Json.parseObject(DOCUMENT));
+        var key = jwks.getKey("key-2");
+
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> jwks.keys().clear());
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> key.put("kid", "key-3"));
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> ((List<Object>) key.get("key_ops")).add("sign"));
+    }
+
+    @Test
+    void copiesKeys() {
+        var json = Json.parseObject(DOCUMENT);
+        var jwks = jwks(json);
+
+        keys(json).get(0).put("kid", "key-3");
+
+        assertThat(jwks.getKey("key-1")).isNotNull();
+        assertThat(jwks.getKey("key-3")).isNull();
+    }
+
+    @Test
+    void keepsOrderAndNullValues() {
+        var jwks = jwks(Json.parseObject(DOCUMENT));
+
+        assertThat(jwks.keys()).extracting(key -> key.get("kid")).containsExactly("key-1", "key-2");
+        assertThat(jwks.getKey("key-1").keySet()).containsExactly("use", "kty", "kid", "alg", "n", "e", "x5c");
+        assertThat(jwks.getKey("key-1")).containsEntry("x5c", null);
+    }
+
+    private static Jwks jwks(Map<String, Object> json) {
+        return new Jwks(DOCUMENT, keys(json), Instant.now());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Map<String, Object>> keys(Map<String, Object> json) {
+        return (List<Map<String, Object>>) json.get("keys");
+    }
+}
@@ -0,0 +1,71 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+import static org.assertj.core.api.Assertions.within;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void empty() {
+        var histogram = new LatencyHistogram();
+
+        assertThat(histogram.count()).isZero();
+        assertThat(histogram.mean()).isEqualTo(Duration.ZERO);
+        assertThat(histogram.max()).isEqualTo(Duration.ZERO);
+        assertThat(histogram.percentile(99)).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    void countTotalMax() {
+        var histogram = new LatencyHistogram();
+        histogram.record(Duration.ofMillis(10));
+        histogram.record(Duration.ofMillis(20));
+        histogram.record(Duration.ofMillis(30));
+
+        assertThat(histogram.count()).isEqualTo(3);
+        assertThat(histogram.total()).isEqualTo(Duration.ofMillis(60));
+        assertThat(histogram.mean()).isEqualTo(Duration.ofMillis(20));
+        assertThat(histogram.max()).isEqualTo(Duration.ofMillis(30));
+    }
+
+    @Test
+    void percentiles() {
+        var histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(Duration.ofMillis(i));
+        }
+
+        assertThat(histogram.percentile(50).toNanos()).isCloseTo(Duration.ofMillis(500).toNanos(), within(Duration.ofMillis(63).toNanos()));
+        assertThat(histogram.percentile(99).toNanos()).isCloseTo(Duration.ofMillis(990).toNanos(), within(Duration.ofMillis(124).toNanos()));
+        assertThat(histogram.percentile(100)).isEqualTo(Duration.ofMillis(1000));
+    }
+
+    @Test
+    void smallValues() {
+        var histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(3);
+        histogram.record(-5);
+
+        assertThat(histogram.count()).isEqualTo(3);
+        assertThat(histogram.max()).isEqualTo(Duration.ofNanos(3));
+        assertThat(histogram.percentile(50)).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    void percentileMustBeInRange() {
+        var histogram = new LatencyHistogram();
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> histogram.percentile(0));
+        assertThatExceptionOfType(IllegalArgumentException.class)
+                .isThrownBy(() -> histogram.percentile(100.1));
+    }
+}
@@ -0,0 +1,67 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class OpenidConfigurationTest {
+
+    private static final String DOCUMENT = """
+            {
+              "issuer": "http://localhost:5556/dex",
+              "authorization_endpoint": "http://localhost:5556/dex/auth",
+              "token_endpoint": "http://localhost:5556/dex/token",
+              "jwks_uri": "http://localhost:5556/dex/keys",
+              "userinfo_endpoint": null,
+              "grant_types_supported": ["authorization_code", "refresh_token"],
+              "scopes_supported": ["openid", "email"],
+              "claims": {"supported": ["sub", "email"]}
+            }
+            """;
+
+    @Test
+    void from() {
+        var configuration = OpenidConfiguration.from(Json.parseObject(DOCUMENT));
+
+        assertThat(configuration.issuer()).isEqualTo("http://localhost:5556/dex");
+        assertThat(configuration.jwksUri()).isEqualTo("http://localhost:5556/dex/keys");
+        assertThat(configuration.userinfoEndpoint()).isNull();
+        assertThat(configuration.grantTypesSupported()).containsExactly("authorization_code", "refresh_token");
+        assertThat(configuration.metadata().keySet()).startsWith("issuer", "authorization_endpoint", "token_endpoint");
+        assertThat(configuration.metadata()).containsEntry("userinfo_endpoint", null);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void metadataIsReadOnly() {
+        var json = Json.parseObject(DOCUMENT);
+        var configuration = OpenidConfiguration.from(json);
+        var metadata = configuration.metadata();
+
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> metadata.put("issuer", "http://example.com"));
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> ((List<Object>) metadata.get("scopes_supported")).add("groups"));
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> ((Map<String, Object>) metadata.get("claims")).clear());
+        assertThatExceptionOfType(UnsupportedOperationException.class)
+                .isThrownBy(() -> configuration.scopesSupported().add("groups"));
+    }
+
+    @Test
+    void copiesMetadata() {
+        var json = Json.parseObject(DOCUMENT);
+        var configuration = OpenidConfiguration.from(json);
+
+        json.put("issuer", "http://example.com");
+
+        assertThat(configuration.metadata()).containsEntry("issuer", "http://localhost:5556/dex");
+    }
+}
@@ -0,0 +1,84 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.stub.StreamObserver;
+import org.junit.jupiter.api.Test;
+import wf.garnier.testcontainers.dexidp.grpc.DexGrpc;
+import wf.garnier.testcontainers.dexidp.grpc.DexGrpcApi;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class SharedGrpcChannelFactoryTest {
+
+    private static final int CALLS = 50;
+
+    @Test
+    void boundedExecutorUnderConcurrentCalls() throws IOException, InterruptedException {
+        int port;
+        try (var socket = new ServerSocket(0)) {
+            // Nothing listens on this port once the socket is closed, so calls fail fast with UNAVAILABLE
+            port = socket.getLocalPort();
+        }
+        var channel = GrpcChannelFactory.shared().withoutRetry().createChannel("localhost", port);
+        try {
+            var stub = DexGrpc.newStub(channel);
+            var callbackThreads = ConcurrentHashMap.<String>newKeySet();
+            var completed = new CountDownLatch(CALLS);
+            for (int i = 0; i < CALLS; i++) {
+                var request = DexServer.deleteClientRequest("client-" + i);
+                stub.deleteClient(request, new SlowObserver(callbackThreads, completed));
+            }
+
+            assertThat(completed.await(30, TimeUnit.SECONDS)).isTrue();
+            assertThat(callbackThreads)
+                    .allSatisfy(name -> assertThat(name).startsWith("dex-grpc-executor"))
+                    .hasSizeLessThanOrEqualTo(SharedGrpcChannelFactory.EXECUTOR_THREADS);
+            assertThat(Thread.getAllStackTraces().keySet())
+                    .filteredOn(thread -> thread.getName().startsWith("dex-grpc-executor"))
+                    .hasSizeLessThanOrEqualTo(SharedGrpcChannelFactory.EXECUTOR_THREADS);
+        } finally {
+            channel.shutdownNow();
+        }
+    }
+
+    /**
+     * Holds the executor thread for a while on completion, so that an unbounded executor would start a
+     * new thread for the next callbacks.
+     */
+    private record SlowObserver(Set<String> callbackThreads, CountDownLatch completed)
+            implements StreamObserver<DexGrpcApi.DeleteClientResp> {
+
+        @Override
+        public void onNext(DexGrpcApi.DeleteClientResp value) {
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            complete();
+        }
+
+        @Override
+        public void onCompleted() {
+            complete();
+        }
+
+        private void complete() {
+            callbackThreads.add(Thread.currentThread().getName());
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            completed.countDown();
+        }
+    }
+}
@@ -0,0 +1,144 @@
+package wf.garnier.testcontainers.dexidp;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Daniel Garnier-Moiroux
+ */
+class TokenCacheTest {
+
+    private static final Instant NOW = Instant.parse("2025-01-01T00:00:00Z");
+
+    private final MutableClock clock = new MutableClock(NOW);
+
+    private final TokenCache cache = new TokenCache(2, clock);
+
+    private final AtomicInteger minted = new AtomicInteger();
+
+    private final TokenCache.Key aliceKey = new TokenCache.Key("client", "alice@example.com", Set.of("openid"));
+
+    private final TokenCache.Key bobKey = new TokenCache.Key("client", "bob@example.com", Set.of("openid"));
+
+    private final TokenCache.Key otherClientKey = new TokenCache.Key("other-client", "alice@example.com", Set.of("openid"));
+
+    @Test
+    void cachesTokens() {
+        var first = cache.get(aliceKey, () -> mint(Duration.ofHours(1)));
+        var second = cache.get(aliceKey, () -> mint(Duration.ofHours(1)));
+
+        assertThat(second).isSameAs(first);
+        assertThat(minted).hasValue(1);
+    }
+
+    @Test
+    void scopesAreUnordered() {
+        var key = new TokenCache.Key("client", null, Set.of("openid", "email"));
+        var sameKey = TokenCache.Key.of(new DexContainer.Client("client", "secret", "https://example.com"), null, "email", "openid");
+
+        assertThat(sameKey).isEqualTo(key);
+    }
+
+    @Test
+    void evictsBeforeExpClaim() {
+        cache.get(aliceKey, () -> mint(Duration.ofMinutes(10)));
+
+        clock.advance(Duration.ofMinutes(9));
+        cache.get(aliceKey, () -> mint(Duration.ofMinutes(10)));
+        assertThat(minted).hasValue(1);
+
+        clock.advance(Duration.ofSeconds(31));
+        cache.get(aliceKey, () -> mint(Duration.ofMinutes(10)));
+        assertThat(minted).hasValue(2);
+    }
+
+    @Test
+    void cachesShortLivedTokens() {
+        var first = cache.get(aliceKey, () -> mint(Duration.ofSeconds(8)));
+
+        clock.advance(Duration.ofSeconds(5));
+        assertThat(cache.get(aliceKey, () -> mint(Duration.ofSeconds(8)))).isSameAs(first);
+        assertThat(minted).hasValue(1);
+
+        // A quarter of the lifetime before expiry
+        clock.advance(Duration.ofSeconds(1));
+        cache.get(aliceKey, () -> mint(Duration.ofSeconds(8)));
+        assertThat(minted).hasValue(2);
+    }
+
+    @Test
+    void expiryMargin() {
+        assertThat(TokenCache.expiryMargin(Duration.ofHours(1))).isEqualTo(TokenCache.EXPIRY_MARGIN);
+        assertThat(TokenCache.expiryMargin(Duration.ofMinutes(2))).isEqualTo(Duration.ofSeconds(30));
+        assertThat(TokenCache.expiryMargin(Duration.ofSeconds(8))).isEqualTo(Duration.ofSeconds(2));
+        assertThat(TokenCache.expiryMargin(Duration.ZERO)).isEqualTo(Duration.ZERO);
+        assertThat(TokenCache.expiryMargin(Duration.ofSeconds(-1))).isEqualTo(Duration.ZERO);
+    }
+
+    @Test
+    void evictsLeastRecentlyUsed() {
+        cache.get(aliceKey, () -> mint(Duration.ofHours(1)));
+        cache.get(bobKey, () -> mint(Duration.ofHours(1)));
+        cache.get(aliceKey, () -> mint(Duration.ofHours(1)));
+        cache.get(otherClientKey, () -> mint(Duration.ofHours(1)));
+
+        assertThat(cache.size()).isEqualTo(2);
+        cache.get(aliceKey, () -> mint(Duration.ofHours(1)));
+        assertThat(minted).hasValue(3);
+        cache.get(bobKey, () -> mint(Duration.ofHours(1)));
+        assertThat(minted).hasValue(4);
+    }
+
+    @Test
+    void invalidateUser() {
+        cache.get(aliceKey, () -> mint(Duration.ofHours(1)));
+        cache.get(bobKey, () -> mint(Duration.ofHours(1)));
+
+        cache.invalidateUser("alice@example.com");
+
+        assertThat(cache.size()).isEqualTo(1);
+        cache.get(bobKey, () -> mint(Duration.ofHours(1)));
+        assertThat(minted).hasValue(2);
+    }
+
+    @Test
+    void invalidateClient() {
+        cache.get(aliceKey, () -> mint(Duration.ofHours(1)));
+        cache.get(otherClientKey, () -> mint(Duration.ofHours(1)));
+
+        cache.invalidateClient("client");
+
+        assertThat(cache.size()).isEqualTo(1);
+        cache.get(otherClientKey, () -> mint(Duration.ofHours(1)));
+        assertThat(minted).hasValue(2);
+    }
+
+    @Test
+    void doesNotCacheTokensMintedDuringInvalidation() {
+        cache.get(aliceKey, () -> {
+            cache.invalidateUser("alice@example.com");
+            return mint(Duration.ofHours(1));
+        });
+
+        assertThat(cache.size()).isZero();
+    }
+
+    private DexTokens.TokenResponse mint(Duration lifetime) {
+        minted.incrementAndGet();
+        var exp = clock.instant().plus(lifetime).getEpochSecond();
+        var jwt = encode("{\"alg\":\"none\"}") + "." + encode("{\"exp\":" + exp + "}") + ".signature";
+        return new DexTokens.TokenResponse(jwt, "bearer", jwt, null, clock.instant().plus(Duration.ofDays(1)));
+    }
+
+    private static String encode(String json) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(json.getBytes(StandardCharsets.UTF_8));
+    }
+}